@@ -1,4 +1,22 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -13,21 +31,88 @@ import java.util.stream.Collectors;
  * Controls: follow printed prompts. Use numbers/letters as requested.
  */
 public class Poker {
-    public static void main(String[] args) {
-        GameConfig cfg = new GameConfig();
-        PokerGame game = new PokerGame(cfg);
-        game.start();
+    /* With no arguments (or 'play [--mcts MS]', for tree-search opponents) this is the console game. Tools:
+         check-eval [samples]                 cross-check the fast evaluators (0 = every 7-card hand)
+         bench-eval [hands]                   evaluator evals/sec, reference vs fast
+         bench [options]                      hot-path benchmarks against a saved baseline
+         equity <hole> [board] [options]      exact or Monte Carlo equity
+         preflop-gen [file] [samples]         build the pre-flop equity table
+         pushfold-gen [file] [samples] [its]  solve the heads-up push/fold charts
+         buckets-gen [file] [options]         k-means card abstraction for flop, turn and river
+         buckets <hole> <board> [--file F]    a hand's bucket from that table
+         sim [options]                        headless AI-only simulation
+         history <file> [--dump N]            scan a binary hand history
+         import <in.txt> <out> [options]      convert PokerStars text histories to a binary one
+         store build|query|report ...         columnar, indexed store built from a hand history
+         mtt [options]                        parallel multi-table tournament
+         icm <stacks> <payouts> [options]     ICM prize equity of each stack */
+    public static void main(String[] args) throws IOException {
+        String cmd = args.length > 0 ? args[0] : "play";
+        String[] rest = args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args;
+        switch (cmd) {
+            case "check-eval" -> System.exit(LookupEvaluator.verify(rest.length > 0 ? Long.parseLong(rest[0]) : 1_000_000) == 0 ? 0 : 1);
+            case "bench-eval" -> EvalBench.run(rest.length > 0 ? Integer.parseInt(rest[0]) : 200_000);
+            case "bench" -> Bench.main(rest);
+            case "equity" -> ExactEquity.main(rest);
+            case "sim" -> Simulator.main(rest);
+            case "history" -> HandHistory.main(rest);
+            case "import" -> TextHistoryImport.main(rest);
+            case "store" -> HandStore.main(rest);
+            case "mtt" -> TournamentRunner.main(rest);
+            case "icm" -> Icm.main(rest);
+            case "buckets-gen" -> CardAbstraction.main(rest, true);
+            case "buckets" -> CardAbstraction.main(rest, false);
+            case "preflop-gen" -> PreflopTable.generate(rest.length > 0 ? rest[0] : new GameConfig().preflopTable,
+                    rest.length > 1 ? Integer.parseInt(rest[1]) : 100_000);
+            case "pushfold-gen" -> PushFoldChart.generate(rest.length > 0 ? rest[0] : new GameConfig().pushFoldChart,
+                    rest.length > 1 ? Integer.parseInt(rest[1]) : 4000, rest.length > 2 ? Integer.parseInt(rest[2]) : 2000);
+            default -> {
+                GameConfig cfg = new GameConfig();
+                if (rest.length > 1 && rest[0].equals("--mcts")) { cfg.aiUseMcts = true; cfg.mctsBudgetMillis = Long.parseLong(rest[1]); }
+                PokerGame game = new PokerGame(cfg);
+                game.start();
+            }
+        }
     }
 }
 
 /* ===== Configuration ===== */
-class GameConfig {
+class GameConfig implements Cloneable {
     int startingChips = 1000;
     int smallBlind = 10;
     int bigBlind = 20;
     int numAIs = 3; // number of AI opponents (change if you want)
     int maxPlayers = 6;
     boolean verboseAI = false;
+    // AI hand strength from Monte Carlo equity instead of the fixed-bonus heuristic
+    boolean aiUseEquity = true;
+    int equitySamples = 4000;     // max samples per decision
+    long equityBudgetMillis = 25; // latency budget per decision (whichever runs out first)
+    long exactEquityMaxDeals = 1_000_000; // enumerate exactly (turn/river) when it takes at most this many deals
+    String preflopTable = "preflop.eq"; // from 'java Poker preflop-gen'; used pre-flop when present
+    String pushFoldChart = "pushfold.bin"; // from 'java Poker pushfold-gen'; heads-up short stacks
+    int strengthCacheMB = 64;           // process-wide cache of post-flop AI strengths, 0 = off
+    boolean aiUseMcts = false;          // tree-search AI instead of the thresholds
+    boolean aiUseRanges = false;        // equity against modelled opponent ranges (see PokerGame.modelOpponents)
+    long mctsBudgetMillis = 200;        // search time per decision
+    int mctsThreads = 0;                // root-parallel searchers, 0 = one per core
+    // AI betting thresholds on ThresholdStrategy.strength (tuned with 'java Poker sim')
+    double aiRaiseThreshold = 0.6;   // bet when checked to
+    double aiReraiseThreshold = 0.7; // raise or call facing a bet
+    double aiCallThreshold = 0.35;   // call facing a bet
+    boolean headless = false;        // every seat is an AI and nothing is printed
+    // tournament blind schedule: blinds grow by blindGrowth every blindLevelHands hands
+    int blindLevelHands = 10;
+    double blindGrowth = 1.5;
+    double[] payouts = null;         // tournament prizes by place (1st first): the AI calls all-ins on ICM, not chips
+
+    // capped well below Integer.MAX_VALUE so bet arithmetic can't overflow
+    int smallBlindAt(int level) { return (int) Math.min(Integer.MAX_VALUE / 8, Math.round(smallBlind * Math.pow(blindGrowth, level))); }
+    int bigBlindAt(int level) { return (int) Math.min(Integer.MAX_VALUE / 8, Math.round(bigBlind * Math.pow(blindGrowth, level))); }
+
+    GameConfig copy() {
+        try { return (GameConfig) clone(); } catch (CloneNotSupportedException e) { throw new AssertionError(e); }
+    }
 }
 
 /* ===== Card, Deck ===== */
@@ -36,7 +121,44 @@ enum Suit { CLUBS, DIAMONDS, HEARTS, SPADES }
 class Card {
     final int rank; // 2..14 (11=J,12=Q,13=K,14=A)
     final Suit suit;
-    Card(int rank, Suit suit) { this.rank = rank; this.suit = suit; }
+    final int index; // 0..51 = suit*13 + (rank-2), also the card's bit in a CardSet
+
+    // all 52 cards are interned; use Card.of(...) instead of new
+    private static final Card[] ALL = new Card[52];
+    static {
+        for (Suit s : Suit.values()) for (int r = 2; r <= 14; r++) ALL[s.ordinal()*13 + r-2] = new Card(r, s);
+    }
+
+    private Card(int rank, Suit suit) { this.rank = rank; this.suit = suit; this.index = suit.ordinal()*13 + rank-2; }
+
+    static Card of(int rank, Suit suit) { return ALL[suit.ordinal()*13 + rank-2]; }
+    static Card of(int index) { return ALL[index]; }
+    static List<Card> all() { return List.of(ALL); }
+
+    long bit() { return 1L << index; }
+
+    // Parse "Ah", "Td", "10c" or "A♥" (suit letters are case-insensitive)
+    static Card parse(String text) {
+        String t = text.trim();
+        if (t.length() < 2) throw new IllegalArgumentException("Bad card: " + text);
+        String r = t.substring(0, t.length()-1).toUpperCase();
+        int rank = switch(r) {
+            case "A" -> 14; case "K" -> 13; case "Q" -> 12; case "J" -> 11; case "T", "10" -> 10;
+            default -> {
+                if (r.length() != 1 || r.charAt(0) < '2' || r.charAt(0) > '9') throw new IllegalArgumentException("Bad card: " + text);
+                yield r.charAt(0) - '0';
+            }
+        };
+        Suit suit = switch(Character.toLowerCase(t.charAt(t.length()-1))) {
+            case 'c', '♣' -> Suit.CLUBS;
+            case 'd', '♦' -> Suit.DIAMONDS;
+            case 'h', '♥' -> Suit.HEARTS;
+            case 's', '♠' -> Suit.SPADES;
+            default -> throw new IllegalArgumentException("Bad card: " + text);
+        };
+        return of(rank, suit);
+    }
+
     @Override public String toString() {
         String r = switch(rank) {
             case 14 -> "A";
@@ -55,18 +177,120 @@ class Card {
     }
 }
 
+/* Deck backed by a reusable int[52] of card indexes. Shuffling is lazy: deal() does a single
+   Fisher-Yates step (swap a random undealt card into the next slot), so a hand only pays for
+   the cards it actually uses and reset() between hands is O(1). The array is always a
+   permutation of 0..51, so nothing has to be rebuilt. */
 class Deck {
-    private final List<Card> cards = new ArrayList<>();
-    private final Random rand = new Random();
-    Deck() {
-        for (Suit s : Suit.values()) {
-            for (int r = 2; r <= 14; r++) cards.add(new Card(r, s));
+    private final int[] cards = new int[52];
+    private final int[] pos = new int[52]; // card index -> slot in cards, for remove()
+    private int dealt = 0;
+    private final Random rand;
+
+    Deck() { this(new Random()); }
+    Deck(Random rand) {
+        this.rand = rand;
+        for (int i=0;i<52;i++) { cards[i] = i; pos[i] = i; }
+    }
+
+    void reset() { dealt = 0; }
+    void shuffle() { reset(); } // kept for callers of the old API; dealing is random anyway
+
+    int remaining() { return 52 - dealt; }
+
+    int dealIndex() {
+        if (dealt == 52) throw new IllegalStateException("Deck empty");
+        swap(dealt, dealt + rand.nextInt(52 - dealt));
+        return cards[dealt++];
+    }
+
+    Card deal() { return Card.of(dealIndex()); }
+
+
+    // Take specific cards out of the undealt part (e.g. known hole or board cards)
+    void remove(long set) {
+        for (long b = set; b != 0; b &= b - 1) {
+            int card = Long.numberOfTrailingZeros(b);
+            if (pos[card] < dealt) throw new IllegalStateException("Card already dealt: " + Card.of(card));
+            swap(dealt++, pos[card]);
+        }
+    }
+
+    private void swap(int i, int j) {
+        int a = cards[i], b = cards[j];
+        cards[i] = b; cards[j] = a;
+        pos[b] = i; pos[a] = j;
+    }
+}
+
+/* ===== CardSet =====
+   Bitboard helpers: a hand, a board or a set of dead cards is one long with bit Card.index set
+   for each card in it. Suit s occupies bits 13*s .. 13*s+12, so a suit's ranks are a shift away. */
+final class CardSet {
+    static final long FULL = (1L << 52) - 1;
+
+    private CardSet() {}
+
+    static long of(List<Card> cards) {
+        long set = 0;
+        for (int i=0;i<cards.size();i++) set |= 1L << cards.get(i).index;
+        return set;
+    }
+
+    static long of(Card... cards) {
+        long set = 0;
+        for (Card c : cards) set |= 1L << c.index;
+        return set;
+    }
+
+    // "AhKs", "Ah Ks" or "A♥ K♠"
+    static long parse(String text) {
+        long set = 0;
+        String t = text.replace(" ", "").replace(",", "");
+        int i = 0;
+        while (i < t.length()) {
+            int len = t.startsWith("10", i) ? 3 : 2;
+            if (i + len > t.length()) throw new IllegalArgumentException("Bad cards: " + text);
+            set |= Card.parse(t.substring(i, i+len)).bit();
+            i += len;
+        }
+        return set;
+    }
+
+    static int size(long set) { return Long.bitCount(set); }
+    static boolean contains(long set, int card) { return (set & (1L << card)) != 0; }
+    static long remaining(long dead) { return FULL & ~dead; }
+
+    // 13-bit rank mask (bit 0 = deuce) of the cards of one suit
+    static int suitMask(long set, int suit) { return (int)(set >>> (13*suit)) & 0x1FFF; }
+
+    // index of the n-th (0-based) card in the set
+    static int nth(long set, int n) {
+        for (int base=0; base<64; base+=16) {
+            int chunk = (int)(set >>> base) & 0xFFFF;
+            int c = Integer.bitCount(chunk);
+            if (n < c) {
+                for (int i=0;i<n;i++) chunk &= chunk - 1;
+                return base + Integer.numberOfTrailingZeros(chunk);
+            }
+            n -= c;
         }
+        throw new IllegalArgumentException("Set has fewer than n cards");
     }
-    void shuffle() { Collections.shuffle(cards, rand); }
-    Card deal() {
-        if (cards.isEmpty()) throw new IllegalStateException("Deck empty");
-        return cards.remove(cards.size()-1);
+
+    // a uniformly random card from the set
+    static int random(long set, SplittableRandom rand) { return nth(set, rand.nextInt(Long.bitCount(set))); }
+    static int random(long set, Random rand) { return nth(set, rand.nextInt(Long.bitCount(set))); }
+
+    static List<Card> toList(long set) {
+        List<Card> out = new ArrayList<>(Long.bitCount(set));
+        for (long b = set; b != 0; b &= b - 1) out.add(Card.of(Long.numberOfTrailingZeros(b)));
+        return out;
+    }
+
+    static String toString(long set) {
+        if (set == 0) return "(empty)";
+        return toList(set).stream().map(Object::toString).collect(Collectors.joining(" "));
     }
 }
 
@@ -79,6 +303,10 @@ class Player {
     boolean folded = false;
     boolean allIn = false;
     int currentBet = 0;
+    int id = -1; // entrant number in a multi-table tournament
+    int seat;    // index in the table's player list for the current hand
+    int committed; // chips put in over the whole hand, for the side pots
+    Strategy strategy; // null = the table's default for humans / AIs
     Player(String name, boolean isHuman, int chips) {
         this.name = name; this.isHuman = isHuman; this.chips = chips;
     }
@@ -87,6 +315,7 @@ class Player {
         folded = false;
         allIn = false;
         currentBet = 0;
+        committed = 0;
     }
     @Override public String toString() {
         return name + (isHuman ? " (you)" : "") + " ["+chips+"]";
@@ -100,8 +329,15 @@ class Player {
    3=twoPair, 2=onePair, 1=highCard
 */
 class HandEvaluator {
-    // Evaluate best 5-card hand from up to 7 cards
+    // Evaluate best 5-card hand from up to 7 cards (table driven, see LookupEvaluator)
     static HandValue evaluate(List<Card> cards) {
+        if (cards.size() < 5) throw new IllegalArgumentException("Need >=5 cards to evaluate");
+        if (cards.size() > 7) return evaluateReference(cards);
+        return new HandValue(LookupEvaluator.score(cards), cards);
+    }
+
+    // Reference evaluator: score all 5-card subsets and keep the best. Slow, kept as an oracle.
+    static HandValue evaluateReference(List<Card> cards) {
         if (cards.size() < 5) throw new IllegalArgumentException("Need >=5 cards to evaluate");
         long bestScore = Long.MIN_VALUE;
         List<Card> bestHand = null;
@@ -113,14 +349,45 @@ class HandEvaluator {
            for (idx[3]=idx[2]+1; idx[3]<n-1; idx[3]++)
             for (idx[4]=idx[3]+1; idx[4]<n; idx[4]++) {
                 List<Card> five = List.of(cards.get(idx[0]), cards.get(idx[1]), cards.get(idx[2]), cards.get(idx[3]), cards.get(idx[4]));
-                long score = scoreFive(five);
+                long score = scoreFiveReference(five);
                 if (score > bestScore) { bestScore = score; bestHand = five; }
             }
         return new HandValue(bestScore, bestHand);
     }
 
-    // Score a 5-card hand
-    private static long scoreFive(List<Card> five) {
+    /* Score a 5-card hand without allocating. The rank histogram is packed as 15 4-bit counters
+       in one long (slot = rank), suit counts likewise in an int, and straights are found from the
+       13-bit rank mask. Same result as scoreFiveReference. */
+    static long scoreFive(Card a, Card b, Card c, Card d, Card e) {
+        long hist = (1L << (a.rank*4)) + (1L << (b.rank*4)) + (1L << (c.rank*4)) + (1L << (d.rank*4)) + (1L << (e.rank*4));
+        int mask = (1 << (a.rank-2)) | (1 << (b.rank-2)) | (1 << (c.rank-2)) | (1 << (d.rank-2)) | (1 << (e.rank-2));
+        int suits = (1 << (a.suit.ordinal()*4)) + (1 << (b.suit.ordinal()*4)) + (1 << (c.suit.ordinal()*4))
+                  + (1 << (d.suit.ordinal()*4)) + (1 << (e.suit.ordinal()*4));
+        boolean isFlush = ((suits >>> (a.suit.ordinal()*4)) & 0xF) == 5;
+        int straightHigh = LookupEvaluator.straightHigh(mask);
+        if (straightHigh > 0) return packScore(isFlush ? 9 : 5, straightHigh, 0,0,0,0);
+        // walk the histogram high to low; singles are packed high-first into kick
+        int quad = 0, three = 0, p1 = 0, p2 = 0, kick = 0, nk = 0;
+        for (int r=14; r>=2; r--) {
+            int n = (int)(hist >>> (r*4)) & 0xF;
+            if (n == 0) continue;
+            if (n == 4) quad = r;
+            else if (n == 3) three = r;
+            else if (n == 2) { if (p1 == 0) p1 = r; else p2 = r; }
+            else { kick = (kick << 4) | r; nk++; }
+        }
+        int k0 = (kick >>> 4*(nk-1)) & 0xF, k1 = nk > 1 ? (kick >>> 4*(nk-2)) & 0xF : 0, k2 = nk > 2 ? (kick >>> 4*(nk-3)) & 0xF : 0;
+        if (isFlush) return packScore(6, k0, k1, k2, (kick >>> 4) & 0xF, kick & 0xF);
+        if (quad != 0) return packScore(8, quad, k0, 0,0,0);
+        if (three != 0 && p1 != 0) return packScore(7, three, p1, 0,0,0);
+        if (three != 0) return packScore(4, three, k0, k1, 0,0);
+        if (p2 != 0) return packScore(3, p1, p2, k0, 0,0);
+        if (p1 != 0) return packScore(2, p1, k0, k1, k2, 0);
+        return packScore(1, k0, k1, k2, (kick >>> 4) & 0xF, kick & 0xF);
+    }
+
+    // Original list/stream based 5-card scorer, kept as the reference for scoreFive
+    static long scoreFiveReference(List<Card> five) {
         // sort by rank desc
         List<Card> c = new ArrayList<>(five);
         c.sort((a,b)->b.rank - a.rank);
@@ -130,7 +397,7 @@ class HandEvaluator {
         // for straight detection, produce sequence with Ace as 14 and also as 1 for wheel
         List<Integer> rForStraight = new ArrayList<>(ranks);
         if (rForStraight.contains(14)) {
-            rForStraight.add(0, 1); // Ace low considered as 1 for wheel (we'll treat accordingly)
+            rForStraight.add(1); // Ace low considered as 1 for wheel (ranks are descending, so it goes last)
         }
         boolean isStraight = false;
         int straightHigh = 0;
@@ -213,7 +480,7 @@ class HandEvaluator {
     }
 
     // pack category and five tiebreaker ints into a long
-    private static long packScore(int category, int a, int b, int c, int d, int e) {
+    static long packScore(int category, int a, int b, int c, int d, int e) {
         // ensure each field fits in 8 bits (0..255) - ranks <= 14 so fine
         long score = category;
         score = (score << 8) | (a & 0xFF);
@@ -225,14 +492,426 @@ class HandEvaluator {
     }
 }
 
+/* ===== Lookup evaluator =====
+   Table driven replacement for the 21-subset loop. A hand is split into two parts:
+   - the rank multiset, walked card by card through a state table (NEXT). Every multiset of
+     0..7 ranks (max 4 of each) is one state, so the order cards arrive in doesn't matter and a
+     shared board can be walked once and extended with each hole pair.
+   - one 13-bit rank mask per suit. If some suit has 5+ cards, FLUSH holds the best flush or
+     straight flush for that mask.
+   A flush in 7 cards rules out quads and full houses, so the answer is max(flush, ranks).
+   Scores are identical to HandEvaluator.packScore (checked by verify()).
+*/
+class LookupEvaluator {
+    static final int MAX_CARDS = 7;
+    static final int[] NEXT;        // state*13 + (rank-2) -> next state, -1 if that rank is used up
+    static final long[] RANK_SCORE; // state -> best non-flush score (0 for fewer than 5 cards)
+    static final long[] FLUSH = new long[1 << 13]; // suit rank mask -> best flush score (0 if < 5 cards)
+
+    static {
+        // enumerate every rank multiset; key is base-5 (count per rank)
+        Map<Long,Integer> ids = new HashMap<>();
+        List<int[]> states = new ArrayList<>();
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        int[] empty = new int[13];
+        ids.put(0L, 0); states.add(empty); todo.add(empty);
+        while (!todo.isEmpty()) {
+            int[] cnt = todo.poll();
+            int size = 0;
+            for (int c : cnt) size += c;
+            if (size == MAX_CARDS) continue;
+            for (int r=0;r<13;r++) {
+                if (cnt[r] == 4) continue;
+                int[] next = cnt.clone(); next[r]++;
+                long key = key(next);
+                if (!ids.containsKey(key)) { ids.put(key, states.size()); states.add(next); todo.add(next); }
+            }
+        }
+        NEXT = new int[states.size() * 13];
+        RANK_SCORE = new long[states.size()];
+        for (int s=0;s<states.size();s++) {
+            int[] cnt = states.get(s);
+            int size = 0;
+            for (int c : cnt) size += c;
+            for (int r=0;r<13;r++) {
+                Integer n = null;
+                if (cnt[r] < 4 && size < MAX_CARDS) { int[] next = cnt.clone(); next[r]++; n = ids.get(key(next)); }
+                NEXT[s*13 + r] = n == null ? -1 : n;
+            }
+            if (size >= 5) RANK_SCORE[s] = bestRanks(cnt);
+        }
+        for (int mask=0; mask<FLUSH.length; mask++) {
+            if (Integer.bitCount(mask) < 5) continue;
+            int high = straightHigh(mask);
+            if (high > 0) { FLUSH[mask] = HandEvaluator.packScore(9, high, 0,0,0,0); continue; }
+            int[] top = new int[5];
+            for (int r=12, i=0; i<5; r--) if ((mask & (1<<r)) != 0) top[i++] = r+2;
+            FLUSH[mask] = HandEvaluator.packScore(6, top[0], top[1], top[2], top[3], top[4]);
+        }
+    }
+
+    private static long key(int[] cnt) {
+        long k = 0;
+        for (int r=12;r>=0;r--) k = k*5 + cnt[r];
+        return k;
+    }
+
+    // highest straight (5..14) in a 13-bit rank mask, 0 if none. Ace plays low for the wheel.
+    static int straightHigh(int mask) {
+        int m = (mask << 1) | (mask >>> 12); // bit 0 = ace low
+        for (int high=12; high>=3; high--) {
+            int run = 0x1F << (high - 3);
+            if ((m & run) == run) return high + 2;
+        }
+        return 0;
+    }
+
+    // best non-flush five from a rank multiset (index 0 = deuce)
+    private static long bestRanks(int[] cnt) {
+        int mask = 0;
+        for (int r=0;r<13;r++) if (cnt[r] > 0) mask |= 1<<r;
+        int quad = highest(cnt, 4, -1), trips = highest(cnt, 3, -1);
+        if (quad >= 0) return HandEvaluator.packScore(8, quad+2, highest(cnt, 1, quad)+2, 0,0,0);
+        if (trips >= 0) {
+            int pair = highest(cnt, 2, trips);
+            if (pair >= 0) return HandEvaluator.packScore(7, trips+2, pair+2, 0,0,0);
+        }
+        int high = straightHigh(mask);
+        if (high > 0) return HandEvaluator.packScore(5, high, 0,0,0,0);
+        int[] k = new int[5];
+        if (trips >= 0) {
+            kickers(mask & ~(1<<trips), k, 2);
+            return HandEvaluator.packScore(4, trips+2, k[0], k[1], 0,0);
+        }
+        int p1 = highest(cnt, 2, -1);
+        int p2 = p1 < 0 ? -1 : highest(cnt, 2, p1);
+        if (p2 >= 0) {
+            kickers(mask & ~(1<<p1) & ~(1<<p2), k, 1);
+            return HandEvaluator.packScore(3, p1+2, p2+2, k[0], 0,0);
+        }
+        if (p1 >= 0) {
+            kickers(mask & ~(1<<p1), k, 3);
+            return HandEvaluator.packScore(2, p1+2, k[0], k[1], k[2], 0);
+        }
+        kickers(mask, k, 5);
+        return HandEvaluator.packScore(1, k[0], k[1], k[2], k[3], k[4]);
+    }
+
+    // highest rank index holding at least min cards, skipping one rank; -1 if none
+    private static int highest(int[] cnt, int min, int skip) {
+        for (int r=12;r>=0;r--) if (r != skip && cnt[r] >= min) return r;
+        return -1;
+    }
+
+    private static void kickers(int mask, int[] out, int n) {
+        for (int r=12, i=0; r>=0 && i<n; r--) if ((mask & (1<<r)) != 0) out[i++] = r+2;
+    }
+
+    // Score 5..7 cards
+    static long score(List<Card> cards) {
+        int state = 0, c = 0, d = 0, h = 0, s = 0;
+        for (int i=0;i<cards.size();i++) {
+            Card card = cards.get(i);
+            int r = card.rank - 2;
+            state = NEXT[state*13 + r];
+            switch (card.suit) {
+                case CLUBS -> c |= 1<<r;
+                case DIAMONDS -> d |= 1<<r;
+                case HEARTS -> h |= 1<<r;
+                case SPADES -> s |= 1<<r;
+            }
+        }
+        return finish(state, c, d, h, s);
+    }
+
+    // Score a CardSet of 5..7 cards
+    static long score(long cards) {
+        return finish(walk(0, cards), CardSet.suitMask(cards, 0), CardSet.suitMask(cards, 1),
+                CardSet.suitMask(cards, 2), CardSet.suitMask(cards, 3));
+    }
+
+    // Advance a rank state by every card in a CardSet
+    static int walk(int state, long cards) {
+        for (int suit=0; suit<4; suit++) {
+            for (int m = CardSet.suitMask(cards, suit); m != 0; m &= m - 1) state = NEXT[state*13 + Integer.numberOfTrailingZeros(m)];
+        }
+        return state;
+    }
+
+    // Score board + hole when the board's rank state is already known
+    static long score(int boardState, long board, long hole) {
+        long all = board | hole;
+        return finish(walk(boardState, hole), CardSet.suitMask(all, 0), CardSet.suitMask(all, 1),
+                CardSet.suitMask(all, 2), CardSet.suitMask(all, 3));
+    }
+
+    // Combine a rank state with the four suit masks
+    static long finish(int state, int clubs, int diamonds, int hearts, int spades) {
+        long best = RANK_SCORE[state];
+        long f = Math.max(Math.max(FLUSH[clubs], FLUSH[diamonds]), Math.max(FLUSH[hearts], FLUSH[spades]));
+        return Math.max(best, f);
+    }
+
+    /* Cross-check against HandEvaluator.evaluateReference. samples <= 0 walks every 7-card
+       combination (133,784,560 of them - the reference is slow, expect this to take a while);
+       otherwise checks that many random 5, 6 and 7 card hands. Returns the number of mismatches. */
+    static long verify(long samples) {
+        List<Card> all = new ArrayList<>(Card.all());
+        long mismatches = 0, checked = 0;
+        if (samples <= 0) {
+            List<Card> seven = new ArrayList<>(List.of(all.get(0), all.get(0), all.get(0), all.get(0), all.get(0), all.get(0), all.get(0)));
+            for (int a=0;a<46;a++) for (int b=a+1;b<47;b++) for (int c=b+1;c<48;c++) for (int d=c+1;d<49;d++)
+             for (int e=d+1;e<50;e++) for (int f=e+1;f<51;f++) for (int g=f+1;g<52;g++) {
+                seven.set(0, all.get(a)); seven.set(1, all.get(b)); seven.set(2, all.get(c)); seven.set(3, all.get(d));
+                seven.set(4, all.get(e)); seven.set(5, all.get(f)); seven.set(6, all.get(g));
+                if (!agrees(seven)) mismatches++;
+                if (++checked % 10_000_000 == 0) System.out.println("checked " + checked + ", mismatches " + mismatches);
+            }
+        } else {
+            Random rand = new Random(42);
+            for (long i=0;i<samples;i++) {
+                Collections.shuffle(all, rand);
+                List<Card> hand = all.subList(0, 5 + (int)(i % 3));
+                if (!agrees(hand)) mismatches++;
+                checked++;
+            }
+        }
+        System.out.println("checked " + checked + " hands, mismatches: " + mismatches);
+        return mismatches;
+    }
+
+    private static boolean agrees(List<Card> hand) {
+        if (hand.size() == 5 && HandEvaluator.scoreFive(hand.get(0), hand.get(1), hand.get(2), hand.get(3), hand.get(4))
+                != HandEvaluator.scoreFiveReference(hand)) {
+            System.out.println("MISMATCH scoreFive " + hand);
+            return false;
+        }
+        long fast = score(hand), ref = HandEvaluator.evaluateReference(hand).score;
+        if (fast != ref) System.out.println("MISMATCH " + hand + " fast=" + Long.toHexString(fast) + " ref=" + Long.toHexString(ref));
+        return fast == ref;
+    }
+}
+
+/* ===== Evaluator micro benchmark =====
+   java Poker bench-eval [hands]
+   Times the reference scorers against the allocation-free / table driven ones on the same
+   random hands and prints evaluations per second for each. */
+class EvalBench {
+    static void run(int hands) {
+        List<Card> all = new ArrayList<>(Card.all());
+        Random rand = new Random(1);
+        Card[][] fives = new Card[hands][];
+        List<List<Card>> fiveLists = new ArrayList<>(), sevenLists = new ArrayList<>();
+        for (int i=0;i<hands;i++) {
+            Collections.shuffle(all, rand);
+            fives[i] = all.subList(0, 5).toArray(new Card[0]);
+            fiveLists.add(List.copyOf(all.subList(0, 5)));
+            sevenLists.add(List.copyOf(all.subList(0, 7)));
+        }
+        for (int round=0; round<3; round++) { // first rounds are JIT warm-up
+            boolean report = round == 2;
+            long sink = 0, t = System.nanoTime();
+            for (List<Card> f : fiveLists) sink += HandEvaluator.scoreFiveReference(f);
+            report(report, "scoreFiveReference (5 cards)", hands, t);
+            t = System.nanoTime();
+            for (Card[] f : fives) sink += HandEvaluator.scoreFive(f[0], f[1], f[2], f[3], f[4]);
+            report(report, "scoreFive          (5 cards)", hands, t);
+            t = System.nanoTime();
+            for (List<Card> h : sevenLists) sink += HandEvaluator.evaluateReference(h).score;
+            report(report, "evaluateReference  (7 cards)", hands, t);
+            t = System.nanoTime();
+            for (List<Card> h : sevenLists) sink += LookupEvaluator.score(h);
+            report(report, "LookupEvaluator    (7 cards)", hands, t);
+            if (sink == 42) System.out.println(); // keep the JIT from dropping the loops
+        }
+    }
+
+    private static void report(boolean report, String what, int n, long startNanos) {
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+        if (report) System.out.printf("%s: %,.0f evals/sec%n", what, n / secs);
+    }
+}
+
+/* ===== Benchmarks =====
+   java Poker bench [--time ms] [--only name] [--baseline file] [--save file]
+   Hot-path benchmarks with fixed seeds. Each one warms up, then runs timed iterations and
+   reports ns/op, bytes allocated per op (thread allocation counter) and GC count/time over the
+   measurement. Results are compared against a baseline file (default bench-baseline.txt) when
+   one exists; --save writes the current results as the new baseline. */
+class Bench {
+    interface Op { long run(); } // return something derived from the work so it can't be dropped
+
+    static final String DEFAULT_BASELINE = "bench-baseline.txt";
+    static long sink;
+
+    static void main(String[] args) throws IOException {
+        long millis = 1000;
+        String only = null, baseline = DEFAULT_BASELINE, save = null;
+        for (int i=0;i<args.length;i++) {
+            switch (args[i]) {
+                case "--time" -> millis = Long.parseLong(args[++i]);
+                case "--only" -> only = args[++i];
+                case "--baseline" -> baseline = args[++i];
+                case "--save" -> save = args[++i];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Map<String,double[]> before = load(baseline);
+        Map<String,double[]> results = new LinkedHashMap<>();
+        System.out.printf("%-24s %12s %12s %8s %8s %10s%n", "benchmark", "ns/op", "bytes/op", "gc", "gc ms", "vs base");
+        for (Map.Entry<String,Op> b : benchmarks().entrySet()) {
+            if (only != null && !b.getKey().contains(only)) continue;
+            double[] r = measure(b.getValue(), millis);
+            results.put(b.getKey(), r);
+            double[] base = before.get(b.getKey());
+            System.out.printf("%-24s %12.1f %12.1f %8.0f %8.0f %10s%n", b.getKey(), r[0], r[1], r[2], r[3],
+                    base == null ? "-" : String.format("%.2fx", base[0] / r[0]));
+        }
+        if (save != null) {
+            StringBuilder sb = new StringBuilder("# benchmark ns/op bytes/op\n");
+            for (Map.Entry<String,double[]> e : results.entrySet())
+                sb.append(e.getKey()).append(' ').append(String.format(Locale.ROOT, "%.2f %.2f", e.getValue()[0], e.getValue()[1])).append('\n');
+            Files.writeString(Path.of(save), sb);
+            System.out.println("Saved baseline to " + save);
+        }
+    }
+
+    static Map<String,Op> benchmarks() {
+        Map<String,Op> m = new LinkedHashMap<>();
+        Random rand = new Random(7);
+        List<List<Card>> hands5 = randomHands(rand, 5), hands6 = randomHands(rand, 6), hands7 = randomHands(rand, 7);
+        int[] i = new int[1];
+        m.put("evaluate.5cards", () -> HandEvaluator.evaluate(hands5.get(i[0]++ & 1023)).score);
+        m.put("evaluate.6cards", () -> HandEvaluator.evaluate(hands6.get(i[0]++ & 1023)).score);
+        m.put("evaluate.7cards", () -> HandEvaluator.evaluate(hands7.get(i[0]++ & 1023)).score);
+
+        m.put("deck.construct", () -> new Deck(rand).remaining());
+        Deck deck = new Deck(new Random(7));
+        m.put("deck.shuffle", () -> { deck.shuffle(); return deck.remaining(); });
+        m.put("deck.dealHand4", () -> { // 4 players' hole cards, burns and the board
+            deck.reset();
+            long x = 0;
+            for (int k=0;k<16;k++) x += deck.dealIndex();
+            return x;
+        });
+
+        GameConfig heuristic = quietConfig(false), withEquity = quietConfig(true);
+        PokerGame hg = tableWithBoard(heuristic), eg = tableWithBoard(withEquity);
+        ThresholdStrategy hs = (ThresholdStrategy) hg.ai, es = (ThresholdStrategy) eg.ai;
+        DecisionView hv = hg.view(hg.players.get(0)), ev = eg.view(eg.players.get(0));
+        m.put("strength.heuristic", () -> (long)(hs.strength(hv) * 1000));
+        m.put("strength.equity", () -> (long)(es.strength(ev) * 1000));
+
+        PokerGame table = new PokerGame(heuristic, new Random(7));
+        table.setupAIs();
+        m.put("playHand.4ai", () -> {
+            for (Player p : table.players) if (p.chips < heuristic.bigBlind * 10) p.chips = heuristic.startingChips;
+            table.playHand();
+            table.dealerIndex = (table.dealerIndex + 1) % table.players.size();
+            return table.decisions;
+        });
+        return m;
+    }
+
+    static GameConfig quietConfig(boolean equity) {
+        GameConfig cfg = new GameConfig();
+        cfg.headless = true;
+        cfg.aiUseEquity = equity;
+        cfg.numAIs = 3; // four seats
+        cfg.preflopTable = null;
+        return cfg;
+    }
+
+    // a four-seat table on the flop, for the strength estimators
+    static PokerGame tableWithBoard(GameConfig cfg) {
+        PokerGame g = new PokerGame(cfg, new Random(7));
+        g.setupAIs();
+        for (Player p : g.players) { p.hole.add(g.deck.deal()); p.hole.add(g.deck.deal()); }
+        for (int k=0;k<3;k++) g.board.add(g.deck.deal());
+        return g;
+    }
+
+    static List<List<Card>> randomHands(Random rand, int size) {
+        List<Card> all = new ArrayList<>(Card.all());
+        List<List<Card>> out = new ArrayList<>();
+        for (int k=0;k<1024;k++) { Collections.shuffle(all, rand); out.add(List.copyOf(all.subList(0, size))); }
+        return out;
+    }
+
+    // {ns/op, bytes/op, gc count, gc ms}
+    static double[] measure(Op op, long millis) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        runFor(op, millis); // warm-up
+        long gcCount = gcCount(), gcTime = gcTime();
+        long bytes = threads.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        long ops = runFor(op, millis * 3);
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+        return new double[] { nanos / (double) ops, bytes / (double) ops, gcCount() - gcCount, gcTime() - gcTime };
+    }
+
+    private static long runFor(Op op, long millis) {
+        long end = System.nanoTime() + millis * 1_000_000, ops = 0, x = 0;
+        while (System.nanoTime() < end) {
+            for (int k=0;k<64;k++) x += op.run();
+            ops += 64;
+        }
+        sink += x;
+        return ops;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcTime() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+
+    static Map<String,double[]> load(String file) throws IOException {
+        Map<String,double[]> m = new HashMap<>();
+        if (file == null || !Files.exists(Path.of(file))) return m;
+        for (String line : Files.readAllLines(Path.of(file))) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] f = line.trim().split("\\s+");
+            m.put(f[0], new double[] { Double.parseDouble(f[1]), Double.parseDouble(f[2]) });
+        }
+        return m;
+    }
+}
+
 /* HandValue holds numeric score and the 5-card winning combination */
 class HandValue {
     final long score;
-    final List<Card> bestFive;
-    HandValue(long score, List<Card> bestFive) { this.score = score; this.bestFive = bestFive; }
+    private final List<Card> cards; // the cards the score was computed from (5..7)
+    private List<Card> bestFive;
+    HandValue(long score, List<Card> cards) { this.score = score; this.cards = cards; }
+
+    // The winning five are only needed for display, so find them on demand instead of during scoring
+    List<Card> bestFive() {
+        if (bestFive != null) return bestFive;
+        if (cards.size() == 5) return bestFive = cards;
+        int n = cards.size();
+        for (int a=0;a<n-4;a++) for (int b=a+1;b<n-3;b++) for (int c=b+1;c<n-2;c++) for (int d=c+1;d<n-1;d++) for (int e=d+1;e<n;e++) {
+            List<Card> five = List.of(cards.get(a), cards.get(b), cards.get(c), cards.get(d), cards.get(e));
+            if (HandEvaluator.scoreFive(five.get(0), five.get(1), five.get(2), five.get(3), five.get(4)) == score) return bestFive = five;
+        }
+        return bestFive = cards;
+    }
+
     String pretty() {
-        int category = (int)(score >> 40);
-        String cat = switch(category) {
+        String cards = bestFive().stream().map(Object::toString).collect(Collectors.joining(" "));
+        return categoryName((int)(score >> 40)) + " (" + cards + ")";
+    }
+
+    static String categoryName(int category) {
+        return switch(category) {
             case 9 -> "Straight Flush";
             case 8 -> "Four of a Kind";
             case 7 -> "Full House";
@@ -244,352 +923,3935 @@ class HandValue {
             case 1 -> "High Card";
             default -> "Unknown";
         };
-        String cards = bestFive.stream().map(Object::toString).collect(Collectors.joining(" "));
-        return cat + " (" + cards + ")";
     }
 }
 
-/* ===== PokerGame ===== */
-class PokerGame {
-    GameConfig cfg;
-    List<Player> players = new ArrayList<>();
-    Deck deck;
-    List<Card> board = new ArrayList<>();
-    int dealerIndex = 0;
-    int pot = 0;
-    Scanner sc = new Scanner(System.in);
-    Random rand = new Random();
+/* ===== Equity engine =====
+   Monte Carlo all-in equity: deal the opponents' hole cards and the rest of the board at
+   random, score everyone, repeat. Samples are split into fork-join tasks, each with its own
+   SplittableRandom split off the parent, and stop at a sample budget or a deadline; a deadline
+   that leaves fewer than MIN_SAMPLES is topped up serially so the estimate is never empty. */
+class Equity {
+    final long samples;
+    final double win, tie, equity; // equity = win + share of split pots
+    final long nanos;
+    final boolean exact; // samples counts every possible deal
+    Equity(long samples, double win, double tie, double equity, long nanos, boolean exact) {
+        this.samples = samples; this.win = win; this.tie = tie; this.equity = equity; this.nanos = nanos; this.exact = exact;
+    }
+    @Override public String toString() {
+        return String.format("equity %.4f (win %.4f, tie %.4f) from %,d %s in %.2f ms",
+                equity, win, tie, samples, exact ? "deals" : "samples", nanos / 1e6);
+    }
+}
 
-    PokerGame(GameConfig cfg) { this.cfg = cfg; }
+class EquityEngine {
+    static final int LEAF_SAMPLES = 256, MIN_SAMPLES = 64;
+    private final ForkJoinPool pool;
 
-    void start() {
-        setupPlayers();
-        System.out.println("\nStarting Texas Hold'em. Type 'q' anytime to quit.\n");
-        boolean continueGame = true;
-        while (continueGame && activePlayersCount() > 1) {
-            playHand();
-            // remove busted players
-            players.removeIf(p->p.chips <= 0 && !p.isHuman); // auto remove busted AI
-            // if human busted, end
-            Player human = getHuman();
-            if (human == null || human.chips <= 0) {
-                System.out.println("\nYou're out of chips. Game over.");
-                break;
+    EquityEngine() { this(ForkJoinPool.commonPool()); }
+    EquityEngine(ForkJoinPool pool) { this.pool = pool; }
+
+    /* hole/board/dead are CardSets. Stops after maxSamples or budgetNanos, whichever comes first
+       (budgetNanos <= 0 means no deadline). */
+    Equity estimate(long hole, long board, long dead, int opponents, int maxSamples, long budgetNanos, long seed) {
+        if (CardSet.size(hole) != 2) throw new IllegalArgumentException("Need 2 hole cards");
+        if (opponents < 1 || 2*opponents + 5 - CardSet.size(board) > CardSet.size(CardSet.remaining(hole | board | dead)))
+            throw new IllegalArgumentException("Not enough cards for " + opponents + " opponents");
+        long start = System.nanoTime();
+        long deadline = budgetNanos > 0 ? start + budgetNanos : Long.MAX_VALUE;
+        Sampler root = new Sampler(hole, board, dead, opponents, maxSamples, deadline, new SplittableRandom(seed));
+        Sampler done = pool.invoke(root);
+        int floor = Math.min(maxSamples, MIN_SAMPLES);
+        if (done.samples < floor)
+            done.add(new Sampler(hole, board, dead, opponents, floor - (int) done.samples, Long.MAX_VALUE, new SplittableRandom(~seed)).compute());
+        long n = Math.max(1, done.samples);
+        return new Equity(done.samples, done.wins / (double) n, done.ties / (double) n,
+                (done.wins + done.tieShare) / n, System.nanoTime() - start, false);
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private static final class Sampler extends RecursiveTask<Sampler> {
+        final long hole, board, dead;
+        final int opponents, budget;
+        final long deadline;
+        final SplittableRandom rand;
+        long samples, wins, ties;
+        double tieShare;
+
+        Sampler(long hole, long board, long dead, int opponents, int budget, long deadline, SplittableRandom rand) {
+            this.hole = hole; this.board = board; this.dead = dead; this.opponents = opponents;
+            this.budget = budget; this.deadline = deadline; this.rand = rand;
+        }
+
+        @Override protected Sampler compute() {
+            if (budget > LEAF_SAMPLES) {
+                int half = budget / 2;
+                Sampler left = new Sampler(hole, board, dead, opponents, half, deadline, rand.split());
+                Sampler right = new Sampler(hole, board, dead, opponents, budget - half, deadline, rand.split());
+                left.fork();
+                right.compute();
+                left.join();
+                add(left);
+                add(right);
+                return this;
             }
-            System.out.print("\nPlay another hand? (y/n): ");
-            String ans = sc.nextLine().trim().toLowerCase();
-            if (ans.equals("q") || ans.equals("n")) continueGame = false;
-            else {
-                // advance dealer
-                dealerIndex = (dealerIndex + 1) % players.size();
+            int missing = 5 - CardSet.size(board);
+            for (int i=0; i<budget; i++) {
+                if ((i & 31) == 0 && System.nanoTime() >= deadline) break;
+                long used = hole | board | dead;
+                long full = board;
+                for (int k=0;k<missing;k++) { long c = 1L << CardSet.random(CardSet.remaining(used), rand); full |= c; used |= c; }
+                int boardState = LookupEvaluator.walk(0, full);
+                long mine = LookupEvaluator.score(boardState, full, hole);
+                int better = 0, equal = 0;
+                for (int o=0; o<opponents && better == 0; o++) {
+                    long c1 = 1L << CardSet.random(CardSet.remaining(used), rand); used |= c1;
+                    long c2 = 1L << CardSet.random(CardSet.remaining(used), rand); used |= c2;
+                    long theirs = LookupEvaluator.score(boardState, full, c1 | c2);
+                    if (theirs > mine) better++;
+                    else if (theirs == mine) equal++;
+                }
+                samples++;
+                if (better > 0) continue;
+                if (equal == 0) wins++;
+                else { ties++; tieShare += 1.0 / (equal + 1); }
             }
+            return this;
         }
-        System.out.println("Thanks for playing!");
+
+        void add(Sampler o) { samples += o.samples; wins += o.wins; ties += o.ties; tieShare += o.tieShare; }
     }
+}
 
-    void setupPlayers() {
-        System.out.println("Welcome to Console Poker!");
-        System.out.print("Enter your name: ");
-        String name = sc.nextLine().trim();
-        if (name.isEmpty()) name = "You";
-        Player human = new Player(name, true, cfg.startingChips);
-        players.add(human);
-        for (int i=1; i<=cfg.numAIs; i++) {
-            players.add(new Player("AI_"+i, false, cfg.startingChips));
-        }
-        // cap players
-        if (players.size() > cfg.maxPlayers) players = players.subList(0, cfg.maxPlayers);
-        System.out.println("Players:");
-        for (Player p : players) System.out.println(" - " + p);
+/* ===== Exact equity =====
+   Enumerates every remaining board card and every set of opponent hands instead of sampling,
+   which is cheap once the turn or river is out. The known board is walked through the lookup
+   table once; each runout card and then each hole pair is added to that state incrementally.
+   Opponent hands are enumerated as unordered sets of disjoint pairs, each set counted once. */
+class ExactEquity {
+    private final long hole;
+    private final int opponents;
+    private final long[] pairBits = new long[1326];
+    private final long[] pairScore = new long[1326];
+    private int pairs;
+    private long mine, deals;
+    private double share, wins, ties;
+
+    private ExactEquity(long hole, int opponents) { this.hole = hole; this.opponents = opponents; }
+
+    // number of deals compute() will look at; used to decide between exact and Monte Carlo
+    static double cost(long hole, long board, long dead, int opponents) {
+        int k = CardSet.size(CardSet.remaining(hole | board | dead));
+        int missing = 5 - CardSet.size(board);
+        double runouts = choose(k, missing), sets = 1;
+        k -= missing;
+        for (int o=0;o<opponents;o++) sets *= choose(k - 2*o, 2);
+        for (int o=2;o<=opponents;o++) sets /= o;
+        return runouts * sets;
     }
 
-    int activePlayersCount() {
-        int c=0;
-        for (Player p: players) if (p.chips > 0) c++;
+    private static double choose(int n, int r) {
+        double c = 1;
+        for (int i=0;i<r;i++) c = c * (n - i) / (i + 1);
         return c;
     }
-    Player getHuman() {
-        for (Player p: players) if (p.isHuman) return p;
-        return null;
-    }
 
-    void playHand() {
-        // reset
-        deck = new Deck(); deck.shuffle();
-        board.clear();
-        pot = 0;
-        for (Player p : players) p.resetForRound();
-        // remove players with 0 chips from sitting out
-        players = players.stream().filter(p->p.chips > 0).collect(Collectors.toList());
-        if (players.size()<2) { System.out.println("Not enough players to continue."); return; }
+    static Equity compute(long hole, long board, long dead, int opponents) {
+        if (CardSet.size(hole) != 2) throw new IllegalArgumentException("Need 2 hole cards");
+        if (CardSet.size(board) > 5) throw new IllegalArgumentException("Board has more than 5 cards");
+        if (opponents < 1) throw new IllegalArgumentException("Need at least one opponent");
+        long start = System.nanoTime();
+        ExactEquity e = new ExactEquity(hole, opponents);
+        long avail = CardSet.remaining(hole | board | dead);
+        e.runouts(board, avail, 5 - CardSet.size(board), 0, LookupEvaluator.walk(0, board));
+        double n = Math.max(1, e.deals);
+        return new Equity(e.deals, e.wins / n, e.ties / n, e.share / n, System.nanoTime() - start, true);
+    }
 
-        // post blinds
-        int sbIndex = (dealerIndex + 1) % players.size();
-        int bbIndex = (dealerIndex + 2) % players.size();
-        Player sb = players.get(sbIndex);
-        Player bb = players.get(bbIndex);
-        int sbAmt = Math.min(cfg.smallBlind, sb.chips);
-        int bbAmt = Math.min(cfg.bigBlind, bb.chips);
-        sb.chips -= sbAmt; sb.currentBet = sbAmt; pot += sbAmt;
-        bb.chips -= bbAmt; bb.currentBet = bbAmt; pot += bbAmt;
-        System.out.println("\n--- New hand ---");
-        System.out.println("Dealer: " + players.get(dealerIndex).name + " | Small blind: " + sb.name + " ("+sbAmt+") | Big blind: " + bb.name + " ("+bbAmt+")");
+    // add the missing board cards one at a time (in index order, so each runout appears once)
+    private void runouts(long board, long avail, int missing, int from, int state) {
+        if (missing == 0) { showdown(board, avail, state); return; }
+        for (int c=from; c<52; c++) {
+            if (!CardSet.contains(avail, c)) continue;
+            runouts(board | (1L << c), avail & ~(1L << c), missing - 1, c + 1, LookupEvaluator.NEXT[state*13 + c % 13]);
+        }
+    }
 
-        // deal hole cards
-        for (int i=0;i<2;i++) {
-            for (Player p : players) {
-                p.hole.add(deck.deal());
+    private void showdown(long board, long avail, int boardState) {
+        mine = LookupEvaluator.score(boardState, board, hole);
+        pairs = 0;
+        for (long a = avail; a != 0; a &= a - 1) {
+            long c1 = a & -a;
+            for (long b = a & (a - 1); b != 0; b &= b - 1) {
+                long both = c1 | (b & -b);
+                pairBits[pairs] = both;
+                pairScore[pairs++] = LookupEvaluator.score(boardState, board, both);
             }
         }
+        if (opponents == 1) {
+            for (int i=0;i<pairs;i++) tally(pairScore[i] > mine ? 1 : 0, pairScore[i] == mine ? 1 : 0);
+        } else {
+            opponentSets(0, opponents, 0L, 0, 0);
+        }
+    }
 
-        // show human hole for convenience
-        Player human = getHuman();
-        System.out.println("\nYour cards: " + human.hole.get(0) + " " + human.hole.get(1));
+    private void opponentSets(int from, int left, long used, int better, int equal) {
+        if (left == 0) { tally(better, equal); return; }
+        for (int i=from; i<pairs; i++) {
+            if ((pairBits[i] & used) != 0) continue;
+            long sc = pairScore[i];
+            opponentSets(i + 1, left - 1, used | pairBits[i], better + (sc > mine ? 1 : 0), equal + (sc == mine ? 1 : 0));
+        }
+    }
 
-        // betting rounds: pre-flop, flop, turn, river
-        int toCall = bb.currentBet; // initial highest bet
-        // Pre-flop betting starting from player after big blind
-        runBettingRound((bbIndex+1)%players.size());
+    private void tally(int better, int equal) {
+        deals++;
+        if (better > 0) return;
+        if (equal == 0) { wins++; share++; }
+        else { ties++; share += 1.0 / (equal + 1); }
+    }
 
-        if (moreThanOneActive()) {
-            // Flop
-            burn(); board.add(deck.deal()); board.add(deck.deal()); board.add(deck.deal());
-            System.out.println("\n*** FLOP: " + boardToString());
-            resetCurrentBets();
-            runBettingRound((dealerIndex+1)%players.size());
+    /* java Poker equity <hole> [board] [--opponents N] [--dead cards] [--samples N]
+       e.g. java Poker equity AhKh Qh7c2dTs --opponents 2
+       Exact when the enumeration is small enough, otherwise Monte Carlo. */
+    static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: equity <hole> [board] [--opponents N] [--dead cards] [--samples N]");
+            return;
         }
-        if (moreThanOneActive()) {
-            // Turn
-            burn(); board.add(deck.deal());
-            System.out.println("\n*** TURN: " + boardToString());
-            resetCurrentBets();
-            runBettingRound((dealerIndex+1)%players.size());
+        long hole = CardSet.parse(args[0]), board = 0, dead = 0;
+        int opponents = 1, samples = 1_000_000;
+        for (int i=1;i<args.length;i++) {
+            switch (args[i]) {
+                case "--opponents" -> opponents = Integer.parseInt(args[++i]);
+                case "--dead" -> dead = CardSet.parse(args[++i]);
+                case "--samples" -> samples = Integer.parseInt(args[++i]);
+                default -> board = CardSet.parse(args[i]);
+            }
         }
-        if (moreThanOneActive()) {
-            // River
-            burn(); board.add(deck.deal());
-            System.out.println("\n*** RIVER: " + boardToString());
-            resetCurrentBets();
-            runBettingRound((dealerIndex+1)%players.size());
+        if ((hole & board) != 0 || ((hole | board) & dead) != 0) throw new IllegalArgumentException("Duplicate cards");
+        double cost = cost(hole, board, dead, opponents);
+        LookupEvaluator.walk(0, 0L); // build the tables before anything is timed
+        System.out.println("Hole: " + CardSet.toString(hole) + " | Board: " + CardSet.toString(board)
+                + " | Opponents: " + opponents + (dead != 0 ? " | Dead: " + CardSet.toString(dead) : ""));
+        if (cost <= 200_000_000) {
+            System.out.println("Exact:       " + compute(hole, board, dead, opponents));
+        } else {
+            System.out.printf("Exact would take %,.0f deals; sampling instead.%n", cost);
+            System.out.println("Monte Carlo: " + new EquityEngine().estimate(hole, board, dead, opponents, samples, 0, System.nanoTime()));
         }
+    }
+}
+
+/* ===== Pre-flop equity table =====
+   All-in equity of each of the 169 starting-hand classes against 1..9 random hands, generated
+   offline ('java Poker preflop-gen [file] [samples]') and memory-mapped at startup so a
+   pre-flop decision is one lookup. Class index on a 13x13 grid of rank indexes (0 = deuce):
+   pairs on the diagonal, suited hands at hi*13+lo, offsuit at lo*13+hi.
+   File: int magic, int version, int maxOpponents, int classes, int samples, then
+   float equity[maxOpponents][classes] (big-endian). */
+class PreflopTable {
+    static final int MAGIC = 0x50464551; // "PFEQ"
+    static final int VERSION = 1;
+    static final int CLASSES = 169;
+    static final int MAX_OPPONENTS = 9;
+    static final int HEADER = 20;
+    private static final Map<String,PreflopTable> loaded = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buf;
+    final int maxOpponents, samples;
+
+    private PreflopTable(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(12) != CLASSES)
+            throw new IllegalArgumentException("Not a pre-flop equity table");
+        maxOpponents = buf.getInt(8);
+        samples = buf.getInt(16);
+        if (maxOpponents < 1 || buf.capacity() < HEADER + (long) maxOpponents * CLASSES * 4)
+            throw new IllegalArgumentException("Truncated pre-flop equity table: " + buf.capacity() + " bytes for " + maxOpponents + " opponents");
+    }
+
+    static int handClass(int rank1, int rank2, boolean suited) {
+        int hi = Math.max(rank1, rank2) - 2, lo = Math.min(rank1, rank2) - 2;
+        return suited ? hi*13 + lo : lo*13 + hi;
+    }
+
+    static int handClass(long hole) {
+        int a = Long.numberOfTrailingZeros(hole), b = 63 - Long.numberOfLeadingZeros(hole);
+        return handClass(a % 13 + 2, b % 13 + 2, a / 13 == b / 13);
+    }
+
+    static String className(int cls) {
+        int row = cls / 13, col = cls % 13;
+        String ranks = "23456789TJQKA";
+        if (row == col) return "" + ranks.charAt(row) + ranks.charAt(row);
+        return row > col ? "" + ranks.charAt(row) + ranks.charAt(col) + "s" : "" + ranks.charAt(col) + ranks.charAt(row) + "o";
+    }
+
+    // a representative hole pair for a class
+    static long representative(int cls) {
+        int row = cls / 13, col = cls % 13;
+        if (row > col) return Card.of(row+2, Suit.CLUBS).bit() | Card.of(col+2, Suit.CLUBS).bit();
+        return Card.of(row+2, Suit.CLUBS).bit() | Card.of(col+2, Suit.DIAMONDS).bit();
+    }
+
+    float equity(int cls, int opponents) { return buf.getFloat(HEADER + ((opponents-1)*CLASSES + cls) * 4); }
+    float equity(long hole, int opponents) { return equity(handClass(hole), opponents); }
+
+    // memory-map a table once per process; null if the file doesn't exist
+    static PreflopTable load(String file) {
+        if (file == null || !Files.exists(Path.of(file))) return null;
+        return loaded.computeIfAbsent(file, f -> {
+            try (FileChannel ch = FileChannel.open(Path.of(f), StandardOpenOption.READ)) {
+                return new PreflopTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read " + f, e);
+            }
+        });
+    }
+
+    static void generate(String file, int samples) throws IOException {
+        EquityEngine engine = new EquityEngine();
+        ByteBuffer out = ByteBuffer.allocate(HEADER + MAX_OPPONENTS * CLASSES * 4);
+        out.putInt(MAGIC).putInt(VERSION).putInt(MAX_OPPONENTS).putInt(CLASSES).putInt(samples);
+        long start = System.nanoTime();
+        for (int opp=1; opp<=MAX_OPPONENTS; opp++) {
+            for (int cls=0; cls<CLASSES; cls++) {
+                Equity eq = engine.estimate(representative(cls), 0L, 0L, opp, samples, 0, 31L * opp + cls);
+                out.putFloat((float) eq.equity);
+            }
+            System.out.printf("%d opponent(s) done, %.1f s%n", opp, (System.nanoTime() - start) / 1e9);
+        }
+        out.flip();
+        Path tmp = Path.of(file + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) ch.write(out);
+        }
+        Files.move(tmp, Path.of(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        PreflopTable t;
+        try (FileChannel ch = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            t = new PreflopTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+        for (String h : new String[]{"AA", "AKs", "AKo", "72o"}) {
+            int cls = -1;
+            for (int c=0;c<CLASSES;c++) if (className(c).equals(h)) cls = c;
+            System.out.printf("%-4s vs 1: %.3f  vs 3: %.3f  vs 9: %.3f%n", h, t.equity(cls, 1), t.equity(cls, 3), t.equity(cls, 9));
+        }
+        System.out.println("Wrote " + file);
+    }
+}
+
+/* ===== Push/fold charts =====
+   Heads-up push-or-fold for short stacks: the small blind shoves or folds, the big blind calls
+   or folds. PushFoldSolver runs CFR+ over the 169 hand classes at each stack depth on a
+   169x169 table of all-in equities (Monte Carlo over compatible combos and boards, scored by
+   the lookup evaluator). Depths are independent, so they're solved in parallel.
+   'java Poker pushfold-gen [file] [samples] [iterations]' writes the charts, which
+   PushFoldChart memory-maps.
+   File: int magic, int version, int depths, int classes, float depth[depths] (big blinds),
+   then per depth float push[classes] and float call[classes] (big-endian). */
+final class PushFoldChart {
+    static final int MAGIC = 0x50555348; // "PUSH"
+    static final int VERSION = 1;
+    static final int CLASSES = PreflopTable.CLASSES;
+    static final int HEADER = 16;
+    static final double MIN_DEPTH = 1, MAX_DEPTH = 25, STEP = 0.5;
+    private static final Map<String,PushFoldChart> loaded = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buf;
+    final int depths;
+
+    private PushFoldChart(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(12) != CLASSES)
+            throw new IllegalArgumentException("Not a push/fold chart");
+        depths = buf.getInt(8);
+        if (depths < 1 || buf.capacity() < HEADER + (long) depths * 4 + (long) depths * CLASSES * 8)
+            throw new IllegalArgumentException("Truncated push/fold chart: " + buf.capacity() + " bytes for " + depths + " depths");
+    }
+
+    double depth(int d) { return buf.getFloat(HEADER + d * 4); }
+    double maxDepth() { return depth(depths - 1); }
+
+    // index of the depth closest to a stack of bb big blinds
+    int nearest(double bb) {
+        int best = 0;
+        for (int d=1; d<depths; d++) if (Math.abs(depth(d) - bb) < Math.abs(depth(best) - bb)) best = d;
+        return best;
+    }
+
+    private int chart(int d) { return HEADER + depths * 4 + d * CLASSES * 8; }
+    float push(int d, int cls) { return buf.getFloat(chart(d) + cls * 4); }
+    float call(int d, int cls) { return buf.getFloat(chart(d) + CLASSES * 4 + cls * 4); }
+
+    // memory-map a chart once per process; null if the file doesn't exist
+    static PushFoldChart load(String file) {
+        if (file == null || !Files.exists(Path.of(file))) return null;
+        return loaded.computeIfAbsent(file, f -> {
+            try (FileChannel ch = FileChannel.open(Path.of(f), StandardOpenOption.READ)) {
+                return new PushFoldChart(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read " + f, e);
+            }
+        });
+    }
+
+    static void generate(String file, int samples, int iterations) throws IOException {
+        long start = System.nanoTime();
+        PushFoldSolver solver = PushFoldSolver.withEquities(samples);
+        System.out.printf("equities: %,d class pairs x %,d samples in %.1f s%n", CLASSES * (CLASSES + 1) / 2, samples, (System.nanoTime() - start) / 1e9);
+        int depths = (int) Math.round((MAX_DEPTH - MIN_DEPTH) / STEP) + 1;
+        double[][] charts = new double[depths][];
+        double[] exploit = new double[depths];
+        long solveStart = System.nanoTime();
+        ForkJoinPool.commonPool().submit(() -> java.util.stream.IntStream.range(0, depths).parallel().forEach(d -> {
+            double[] out = new double[2 * CLASSES];
+            exploit[d] = solver.solve(MIN_DEPTH + d * STEP, iterations, out);
+            charts[d] = out;
+        })).join();
+        System.out.printf("%d depths x %,d CFR+ iterations in %.1f s%n", depths, iterations, (System.nanoTime() - solveStart) / 1e9);
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER + depths * 4 + depths * CLASSES * 8);
+        out.putInt(MAGIC).putInt(VERSION).putInt(depths).putInt(CLASSES);
+        for (int d=0; d<depths; d++) out.putFloat((float) (MIN_DEPTH + d * STEP));
+        for (double[] c : charts) for (double x : c) out.putFloat((float) x);
+        out.flip();
+        Path tmp = Path.of(file + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) ch.write(out);
+        }
+        Files.move(tmp, Path.of(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loaded.remove(file);
+        PushFoldChart chart = load(file);
+        for (double bb : new double[]{ 3, 8, 15, 25 }) {
+            int d = chart.nearest(bb), pushes = 0, calls = 0, combos = 0;
+            for (int cls=0; cls<CLASSES; cls++) {
+                int n = cls / 13 == cls % 13 ? 6 : cls / 13 > cls % 13 ? 4 : 12;
+                combos += n;
+                pushes += Math.round(chart.push(d, cls) * n);
+                calls += Math.round(chart.call(d, cls) * n);
+            }
+            System.out.printf("%4.1f bb: push %.1f%%, call %.1f%% of hands, exploitable by %.3f mbb/hand%n", chart.depth(d),
+                    pushes * 100.0 / combos, calls * 100.0 / combos, exploit[d] * 1000);
+        }
+        System.out.println("Wrote " + file);
+    }
+}
+
+final class PushFoldSolver {
+    static final int CLASSES = PreflopTable.CLASSES;
+    final double[] equity = new double[CLASSES * CLASSES]; // row class's all-in equity against column class
+    final double[] weight = new double[CLASSES * CLASSES]; // number of non-overlapping combo pairs
+
+    // the 1326 hole pairs grouped by class
+    static long[][] combos() {
+        List<List<Long>> by = new ArrayList<>();
+        for (int c=0;c<CLASSES;c++) by.add(new ArrayList<>());
+        for (int a=0;a<52;a++) for (int b=a+1;b<52;b++) {
+            long hole = 1L << a | 1L << b;
+            by.get(PreflopTable.handClass(hole)).add(hole);
+        }
+        long[][] out = new long[CLASSES][];
+        for (int c=0;c<CLASSES;c++) out[c] = by.get(c).stream().mapToLong(Long::longValue).toArray();
+        return out;
+    }
+
+    static PushFoldSolver withEquities(int samples) {
+        PushFoldSolver s = new PushFoldSolver();
+        long[][] combos = combos();
+        ForkJoinPool.commonPool().submit(() -> java.util.stream.IntStream.range(0, CLASSES).parallel().forEach(i -> {
+            for (int j=i; j<CLASSES; j++) s.pair(combos, i, j, samples);
+        })).join();
+        return s;
+    }
+
+    private void pair(long[][] combos, int i, int j, int samples) {
+        long[] a = combos[i], b = combos[j];
+        int compatible = 0;
+        for (long x : a) for (long y : b) if ((x & y) == 0) compatible++;
+        weight[i * CLASSES + j] = weight[j * CLASSES + i] = compatible;
+        if (compatible == 0) return;
+        SplittableRandom rand = new SplittableRandom(i * 1000L + j);
+        double share = 0;
+        for (int n=0; n<samples; n++) {
+            long x, y;
+            do { x = a[rand.nextInt(a.length)]; y = b[rand.nextInt(b.length)]; } while ((x & y) != 0);
+            long deck = CardSet.FULL & ~x & ~y, board = 0;
+            for (int k=0;k<5;k++) {
+                int c = CardSet.random(deck, rand);
+                deck &= ~(1L << c);
+                board |= 1L << c;
+            }
+            int bs = LookupEvaluator.walk(0, board);
+            long sx = LookupEvaluator.score(bs, board, x), sy = LookupEvaluator.score(bs, board, y);
+            share += sx > sy ? 1 : sx == sy ? 0.5 : 0;
+        }
+        equity[i * CLASSES + j] = share / samples;
+        equity[j * CLASSES + i] = 1 - share / samples;
+    }
+
+    /* CFR+ at a stack of S big blinds (blinds included): regrets floored at zero, alternating
+       updates, linearly weighted average strategy. out = push[169] then call[169]; returns
+       the exploitability of the average strategies in big blinds per hand. */
+    double solve(double S, int iterations, double[] out) {
+        int n = CLASSES;
+        double[] pushRegret = new double[n], foldRegret = new double[n], callRegret = new double[n], passRegret = new double[n];
+        double[] push = new double[n], call = new double[n], pushSum = new double[n], callSum = new double[n];
+        Arrays.fill(push, 0.5);
+        Arrays.fill(call, 0.5);
+        for (int t=1; t<=iterations; t++) {
+            // big blind against the current pushing range
+            for (int j=0;j<n;j++) {
+                double evCall = 0, evFold = 0;
+                for (int i=0;i<n;i++) {
+                    double w = weight[i * n + j] * push[i];
+                    evCall += w * (S - 2 * S * equity[i * n + j]);
+                    evFold -= w;
+                }
+                double ev = call[j] * evCall + (1 - call[j]) * evFold;
+                callRegret[j] = Math.max(0, callRegret[j] + evCall - ev);
+                passRegret[j] = Math.max(0, passRegret[j] + evFold - ev);
+                call[j] = match(callRegret[j], passRegret[j]);
+                callSum[j] += t * call[j];
+            }
+            // small blind against the updated calling range
+            for (int i=0;i<n;i++) {
+                double evPush = 0, evFold = 0;
+                for (int j=0;j<n;j++) {
+                    double w = weight[i * n + j];
+                    evPush += w * ((1 - call[j]) + call[j] * (2 * S * equity[i * n + j] - S));
+                    evFold -= w * 0.5;
+                }
+                double ev = push[i] * evPush + (1 - push[i]) * evFold;
+                pushRegret[i] = Math.max(0, pushRegret[i] + evPush - ev);
+                foldRegret[i] = Math.max(0, foldRegret[i] + evFold - ev);
+                push[i] = match(pushRegret[i], foldRegret[i]);
+                pushSum[i] += t * push[i];
+            }
+        }
+        double norm = iterations * (iterations + 1) / 2.0;
+        for (int i=0;i<n;i++) { out[i] = pushSum[i] / norm; out[n + i] = callSum[i] / norm; }
+        return exploitability(S, out);
+    }
+
+    private static double match(double yes, double no) {
+        return yes + no > 0 ? yes / (yes + no) : 0.5;
+    }
+
+    // (best response of each side against the other's average strategy) / 2
+    double exploitability(double S, double[] strategy) {
+        int n = CLASSES;
+        double total = 0, brSb = 0, brBb = 0;
+        for (int i=0;i<n;i++) {
+            double evPush = 0, evFold = 0;
+            for (int j=0;j<n;j++) {
+                double w = weight[i * n + j], c = strategy[n + j];
+                total += w;
+                evPush += w * ((1 - c) + c * (2 * S * equity[i * n + j] - S));
+                evFold -= w * 0.5;
+            }
+            brSb += Math.max(evPush, evFold);
+        }
+        for (int j=0;j<n;j++) {
+            double evCall = 0, evFold = 0, folded = 0;
+            for (int i=0;i<n;i++) {
+                double w = weight[i * n + j], p = strategy[i];
+                folded += w * (1 - p) * 0.5;
+                evCall += w * p * (S - 2 * S * equity[i * n + j]);
+                evFold -= w * p;
+            }
+            brBb += folded + Math.max(evCall, evFold);
+        }
+        return (brSb + brBb) / total / 2;
+    }
+}
+
+/* ===== Strength cache =====
+   Equity only depends on the cards up to a relabelling of the suits, so spots are cached under
+   a suit-isomorphic key: the four suits are ordered by their (hole ranks, board ranks)
+   pattern and renamed in that order, which makes e.g. AhKh/Qh7c2d and AsKs/Qs7d2c the same key.
+   The cache maps keys to strengths. It is split into stripes, each a fixed-size LRU with its
+   own lock, and is shared by every table in the process (StrengthCache.shared). */
+final class SuitIsomorphism {
+    private SuitIsomorphism() {}
+
+    /* 6-bit canonical card indexes, hole then board, each group ascending, 63 = no card;
+       opponents go in bits 48.. */
+    static long key(long hole, long board, int opponents) {
+        // per suit: hole ranks in the high 13 bits, board ranks in the low 13, suit in the low 2
+        int s0 = sig(hole, board, 0), s1 = sig(hole, board, 1), s2 = sig(hole, board, 2), s3 = sig(hole, board, 3), t;
+        // sort descending (5 compare-exchanges)
+        if (s0 < s1) { t = s0; s0 = s1; s1 = t; }
+        if (s2 < s3) { t = s2; s2 = s3; s3 = t; }
+        if (s0 < s2) { t = s0; s0 = s2; s2 = t; }
+        if (s1 < s3) { t = s1; s1 = s3; s3 = t; }
+        if (s1 < s2) { t = s1; s1 = s2; s2 = t; }
+        long h = relabel(hole, s0, s1, s2, s3), b = relabel(board, s0, s1, s2, s3);
+        return (long) opponents << 48 | pack(h, 2) << 30 | pack(b, 5);
+    }
+
+    /* The same ordering for a board on its own, as four 2-bit old suits, new suit 0 lowest, for
+       relabel(set, order); ties between suits with the same board ranks go by suit index. */
+    static int boardOrder(long board) {
+        int s0 = sig(0, board, 0), s1 = sig(0, board, 1), s2 = sig(0, board, 2), s3 = sig(0, board, 3), t;
+        if (s0 < s1) { t = s0; s0 = s1; s1 = t; }
+        if (s2 < s3) { t = s2; s2 = s3; s3 = t; }
+        if (s0 < s2) { t = s0; s0 = s2; s2 = t; }
+        if (s1 < s3) { t = s1; s1 = s3; s3 = t; }
+        if (s1 < s2) { t = s1; s1 = s2; s2 = t; }
+        return (s0 & 3) | (s1 & 3) << 2 | (s2 & 3) << 4 | (s3 & 3) << 6;
+    }
+
+    static long relabel(long set, int order) { return relabel(set, order, order >> 2, order >> 4, order >> 6); }
+
+    // the set with suit (sI & 3) renamed to suit I
+    private static long relabel(long set, int s0, int s1, int s2, int s3) {
+        return CardSet.suitMask(set, s0 & 3) | (long) CardSet.suitMask(set, s1 & 3) << 13
+                | (long) CardSet.suitMask(set, s2 & 3) << 26 | (long) CardSet.suitMask(set, s3 & 3) << 39;
+    }
+
+    private static int sig(long hole, long board, int suit) {
+        return (CardSet.suitMask(hole, suit) << 13 | CardSet.suitMask(board, suit)) << 2 | suit;
+    }
+
+    // cards of a set as 6-bit fields, lowest card first, padded to n cards with 63
+    private static long pack(long set, int n) {
+        long out = 0;
+        for (int i=0;i<n;i++) {
+            int c = set == 0 ? 63 : Long.numberOfTrailingZeros(set);
+            out |= (long) c << 6*i;
+            set &= set - 1;
+        }
+        return out;
+    }
+}
+
+final class StrengthCache {
+    static final int STRIPES = 16;
+    static final int ENTRY_BYTES = 36; // key, value, LRU links, chain link, bucket slot
+    private static final Map<Integer, StrengthCache> SHARED = new ConcurrentHashMap<>();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    final int megabytes;
+
+    StrengthCache(int megabytes) {
+        this.megabytes = megabytes;
+        long entries = Math.max(STRIPES, (long) megabytes * (1 << 20) / ENTRY_BYTES);
+        int perStripe = (int) Math.min(1 << 26, entries / STRIPES);
+        for (int i=0;i<STRIPES;i++) stripes[i] = new Stripe(perStripe);
+    }
+
+    // one cache per size for the whole process
+    static StrengthCache shared(int megabytes) { return SHARED.computeIfAbsent(megabytes, StrengthCache::new); }
+    static Collection<StrengthCache> all() { return SHARED.values(); }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    // NaN when absent
+    double get(long key) {
+        long h = mix(key);
+        double v = stripes[(int) (h >>> 60)].get(key, (int) h);
+        if (Double.isNaN(v)) misses.increment(); else hits.increment();
+        return v;
+    }
+
+    void put(long key, double value) {
+        long h = mix(key);
+        if (stripes[(int) (h >>> 60)].put(key, (int) h, value)) evictions.increment();
+    }
+
+    long size() {
+        long n = 0;
+        for (Stripe s : stripes) n += s.size();
+        return n;
+    }
+
+    double hitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    @Override public String toString() {
+        return String.format("strength cache (%d MB): %.1f%% hits of %,d lookups, %,d entries, %,d evictions",
+                megabytes, hitRate() * 100, hits.sum() + misses.sum(), size(), evictions.sum());
+    }
+
+    /* Fixed pool of entries with hash chains for lookup and a doubly linked list in recency
+       order (head = most recent) for eviction; all plain arrays. */
+    private static final class Stripe {
+        final long[] keys;
+        final double[] values;
+        final int[] prev, next, chain, buckets;
+        int size, head = -1, tail = -1;
+
+        Stripe(int capacity) {
+            keys = new long[capacity]; values = new double[capacity];
+            prev = new int[capacity]; next = new int[capacity]; chain = new int[capacity];
+            buckets = new int[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+            Arrays.fill(buckets, -1);
+        }
+
+        synchronized int size() { return size; }
+
+        private int find(long key, int hash) {
+            for (int e = buckets[hash & (buckets.length - 1)]; e >= 0; e = chain[e]) if (keys[e] == key) return e;
+            return -1;
+        }
+
+        synchronized double get(long key, int hash) {
+            int e = find(key, hash);
+            if (e < 0) return Double.NaN;
+            touch(e);
+            return values[e];
+        }
+
+        // true if an entry was evicted to make room
+        synchronized boolean put(long key, int hash, double value) {
+            int e = find(key, hash);
+            if (e >= 0) { values[e] = value; touch(e); return false; }
+            boolean evicted = false;
+            if (size < keys.length) e = size++;
+            else { e = tail; unlink(e); unchain(e); evicted = true; }
+            keys[e] = key; values[e] = value;
+            int b = hash & (buckets.length - 1);
+            chain[e] = buckets[b]; buckets[b] = e;
+            prev[e] = -1; next[e] = head;
+            if (head >= 0) prev[head] = e;
+            head = e;
+            if (tail < 0) tail = e;
+            return evicted;
+        }
+
+        private void touch(int e) {
+            if (e == head) return;
+            unlink(e);
+            prev[e] = -1; next[e] = head;
+            prev[head] = e;
+            head = e;
+        }
+
+        private void unlink(int e) {
+            if (prev[e] >= 0) next[prev[e]] = next[e]; else head = next[e];
+            if (next[e] >= 0) prev[next[e]] = prev[e]; else tail = prev[e];
+        }
+
+        private void unchain(int e) {
+            int b = (int) mix(keys[e]) & (buckets.length - 1);
+            if (buckets[b] == e) { buckets[b] = chain[e]; return; }
+            for (int x = buckets[b]; ; x = chain[x]) if (chain[x] == e) { chain[x] = chain[e]; return; }
+        }
+    }
+}
+
+/* ===== Card abstraction =====
+   Buckets for every flop, turn and river hand, for solvers and search bots that can't keep
+   the 1.3M flop, 14M turn and 123M river hands (up to suits) apart. A hand's features are
+   its river hand strength (HS, win + tie/2 against one random hand) over every runout from
+   here, as a histogram of `bins` bins, with its mean (EHS) and mean square (EHS²). On the
+   river the histogram is a single spike, so river buckets are HS ranges no finer than a
+   bin. Each street is clustered into K buckets by k-means
+   under earth mover's distance - on a line that is the L1 distance between CDFs, so points
+   and centroids are kept as CDFs and a centroid is still the mean. k-means (k-means++
+   seeding, then Lloyd iterations split over the pool) runs on about `train` hands from
+   random boards; then every board is swept again in parallel and each hand gets its nearest
+   centroid. Buckets are numbered by ascending EHS.
+   HS for one river board is a sort: the hands that miss it are ordered by score and each
+   one's wins and ties come from running counts per card, instead of 990 evaluations each.
+   Lookup is O(1): the board's suits are put in SuitIsomorphism.boardOrder, the relabelled
+   board's colex rank indexes the canonical board ids, and the bucket is one byte at
+   id*1326 + the relabelled hole's colex rank.
+   File (big-endian): int magic, int version, int bins, int 0, then for flop, turn and river
+   int buckets, int boards and the long offsets of its int boardIndex[C(52, cards)] (-1 = not
+   canonical), byte bucket[boards*1326] (unsigned, 255 = impossible hand) and float
+   summary[buckets][2] (mean EHS, EHS² of its hands). */
+final class CardAbstraction {
+    static final int MAGIC = 0x50424B54; // "PBKT"
+    static final int VERSION = 1;
+    static final int HEADER = 16 + 3 * 32;
+    static final int HOLES = 1326, NONE = 255, MAX_BUCKETS = 255;
+    static final String DEFAULT_FILE = "buckets.bin";
+    static final int[][] CHOOSE = new int[53][6];
+    static final long[] HOLE = new long[HOLES]; // colex rank -> hole pair
+    static {
+        CHOOSE[0][0] = 1;
+        for (int n=1;n<=52;n++) {
+            CHOOSE[n][0] = 1;
+            for (int k=1;k<=5;k++) CHOOSE[n][k] = CHOOSE[n-1][k-1] + CHOOSE[n-1][k];
+        }
+        for (int b=1;b<52;b++) for (int a=0;a<b;a++) HOLE[colex(1L << a | 1L << b)] = 1L << a | 1L << b;
+    }
+    private static final Map<String,CardAbstraction> loaded = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buf;
+    final int bins;
+    private final int[] buckets = new int[4];
+    private final int[] index = new int[4], bucket = new int[4], summary = new int[4]; // section offsets by street
+
+    private CardAbstraction(MappedByteBuffer buf) {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) throw new IllegalArgumentException("Not a bucket table");
+        bins = buf.getInt(8);
+        for (int street=1;street<=3;street++) {
+            int at = 16 + (street - 1) * 32;
+            buckets[street] = buf.getInt(at);
+            index[street] = (int) buf.getLong(at + 8);
+            bucket[street] = (int) buf.getLong(at + 16);
+            summary[street] = (int) buf.getLong(at + 24);
+        }
+    }
+
+    // memory-map a table once per process; null if the file doesn't exist
+    static CardAbstraction load(String file) {
+        if (file == null || !Files.exists(Path.of(file))) return null;
+        return loaded.computeIfAbsent(file, f -> {
+            try (FileChannel ch = FileChannel.open(Path.of(f), StandardOpenOption.READ)) {
+                return new CardAbstraction(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't read " + f, e);
+            }
+        });
+    }
+
+    // rank of a set among the sets of its size, in colex order
+    static int colex(long set) {
+        int r = 0, i = 1;
+        for (long s = set; s != 0; s &= s - 1) r += CHOOSE[Long.numberOfTrailingZeros(s)][i++];
+        return r;
+    }
+
+    // bucket of a hole pair on a 3-5 card board, 0 = weakest
+    int bucket(long hole, long board) {
+        int street = CardSet.size(board) - 2, order = SuitIsomorphism.boardOrder(board);
+        int id = buf.getInt(index[street] + 4 * colex(SuitIsomorphism.relabel(board, order)));
+        return buf.get(bucket[street] + id * HOLES + colex(SuitIsomorphism.relabel(hole, order))) & 0xFF;
+    }
+
+    int buckets(int street) { return buckets[street]; }
+    float ehs(int street, int b) { return buf.getFloat(summary[street] + 8 * b); }
+    float ehs2(int street, int b) { return buf.getFloat(summary[street] + 8 * b + 4); }
+
+    // the next larger set with as many cards (Gosper's hack)
+    private static long nextSet(long x) {
+        long c = x & -x, r = x + c;
+        return (((r ^ x) >>> 2) / c) | r;
+    }
+
+    /* Features of every hole on one board, one Sweep per thread. cdf holds `bins` cumulative
+       fractions per hole (by colex rank), for holes that miss the board. */
+    private static final class Sweep {
+        final int bins;
+        final float[] cdf, ehs = new float[HOLES], ehs2 = new float[HOLES], hs = new float[HOLES];
+        final int[] count, live = new int[HOLES], cardBelow = new int[52], cardGroup = new int[52];
+        final long[] sorted = new long[HOLES];
+
+        Sweep(int bins) { this.bins = bins; cdf = new float[HOLES * bins]; count = new int[HOLES * bins]; }
+
+        void features(long board) {
+            Arrays.fill(count, 0);
+            Arrays.fill(ehs, 0);
+            Arrays.fill(ehs2, 0);
+            long rest = CardSet.remaining(board);
+            switch (5 - CardSet.size(board)) {
+                case 0 -> river(board);
+                case 1 -> { for (long r = rest; r != 0; r &= r - 1) river(board | (r & -r)); }
+                default -> {
+                    for (long t = rest; t != 0; t &= t - 1) for (long r = t & (t - 1); r != 0; r &= r - 1) river(board | (t & -t) | (r & -r));
+                }
+            }
+            // each hole that misses the board misses C(remaining - 2, missing) of the runouts
+            int missing = 5 - CardSet.size(board), per = CHOOSE[52 - CardSet.size(board) - 2][missing];
+            float inv = 1f / per;
+            for (int h=0;h<HOLES;h++) {
+                if ((HOLE[h] & board) != 0) continue;
+                int sum = 0, at = h * bins;
+                for (int b=0;b<bins;b++) { sum += count[at + b]; cdf[at + b] = sum * inv; }
+                ehs[h] *= inv;
+                ehs2[h] *= inv;
+            }
+        }
+
+        // adds the HS of every hole that misses the 5-card board to its histogram
+        private void river(long full) {
+            int boardState = LookupEvaluator.walk(0, full), n = 0;
+            for (int h=0;h<HOLES;h++) if ((HOLE[h] & full) == 0) sorted[n++] = LookupEvaluator.score(boardState, full, HOLE[h]) << 11 | h;
+            Arrays.sort(sorted, 0, n);
+            Arrays.fill(cardBelow, 0);
+            float opponents = CHOOSE[45][2];
+            int below = 0;
+            for (int i=0;i<n;) {
+                long key = sorted[i] >>> 11;
+                int end = i;
+                for (; end < n && sorted[end] >>> 11 == key; end++) {
+                    long hole = HOLE[(int) (sorted[end] & 2047)];
+                    cardGroup[Long.numberOfTrailingZeros(hole)]++;
+                    cardGroup[63 - Long.numberOfLeadingZeros(hole)]++;
+                }
+                int group = end - i;
+                for (int j=i;j<end;j++) {
+                    int h = (int) (sorted[j] & 2047);
+                    int a = Long.numberOfTrailingZeros(HOLE[h]), b = 63 - Long.numberOfLeadingZeros(HOLE[h]);
+                    int wins = below - cardBelow[a] - cardBelow[b];
+                    int ties = group - cardGroup[a] - cardGroup[b] + 1; // hands in the group that miss a and b
+                    float v = (wins + ties * 0.5f) / opponents;
+                    hs[h] = v;
+                    live[j] = h;
+                }
+                for (int j=i;j<end;j++) {
+                    long hole = HOLE[live[j]];
+                    int a = Long.numberOfTrailingZeros(hole), b = 63 - Long.numberOfLeadingZeros(hole);
+                    cardBelow[a]++; cardBelow[b]++;
+                    cardGroup[a]--; cardGroup[b]--;
+                }
+                below += group;
+                i = end;
+            }
+            for (int i=0;i<n;i++) {
+                int h = live[i];
+                float v = hs[h];
+                count[h * bins + Math.min(bins - 1, (int) (v * bins))]++;
+                ehs[h] += v;
+                ehs2[h] += v * v;
+            }
+        }
+    }
+
+    // earth mover's distance between two CDFs of `bins` bins, in bins
+    private static float emd(float[] a, int ai, float[] b, int bi, int bins) {
+        float d = 0;
+        for (int i=0;i<bins;i++) d += Math.abs(a[ai + i] - b[bi + i]);
+        return d;
+    }
+
+    private static int nearest(float[] point, int pi, float[] centroids, int k, int bins) {
+        int best = 0;
+        float bestD = Float.MAX_VALUE;
+        for (int c=0;c<k;c++) {
+            float d = emd(point, pi, centroids, c * bins, bins);
+            if (d < bestD) { bestD = d; best = c; }
+        }
+        return best;
+    }
+
+    /* k-means++ seeds, then Lloyd iterations until under 0.1% of the points move or
+       `iterations` run out. Returns k centroid CDFs, each bins long. */
+    static float[] kmeans(float[] points, int n, int bins, int k, int iterations, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        float[] centroids = new float[k * bins];
+        double[] d2 = new double[n];
+        System.arraycopy(points, rand.nextInt(n) * bins, centroids, 0, bins);
+        Arrays.fill(d2, Double.MAX_VALUE);
+        for (int c=1;c<k;c++) {
+            int last = c - 1;
+            double sum = 0;
+            for (int p=0;p<n;p++) {
+                double d = emd(points, p * bins, centroids, last * bins, bins);
+                d2[p] = Math.min(d2[p], d * d);
+                sum += d2[p];
+            }
+            double u = rand.nextDouble() * sum;
+            int pick = 0;
+            for (; pick < n - 1 && (u -= d2[pick]) > 0; pick++);
+            System.arraycopy(points, pick * bins, centroids, c * bins, bins);
+        }
+        int[] assigned = new int[n];
+        Arrays.fill(assigned, -1);
+        int chunk = Math.max(1024, n / (ForkJoinPool.commonPool().getParallelism() * 8));
+        for (int it=0; it<iterations; it++) {
+            final float[] current = centroids;
+            double[] sums = ForkJoinPool.commonPool().submit(() -> java.util.stream.IntStream.range(0, (n + chunk - 1) / chunk).parallel().mapToObj(ch -> {
+                double[] part = new double[k * bins + k + 1]; // centroid sums, counts, points moved
+                for (int p=ch*chunk, end=Math.min(n, p + chunk); p<end; p++) {
+                    int c = nearest(points, p * bins, current, k, bins);
+                    if (c != assigned[p]) { assigned[p] = c; part[k * bins + k]++; }
+                    for (int i=0;i<bins;i++) part[c * bins + i] += points[p * bins + i];
+                    part[k * bins + c]++;
+                }
+                return part;
+            }).reduce((x, y) -> { for (int i=0;i<x.length;i++) x[i] += y[i]; return x; }).orElseThrow()).join();
+            centroids = current.clone();
+            for (int c=0;c<k;c++) {
+                double members = sums[k * bins + c];
+                if (members > 0) for (int i=0;i<bins;i++) centroids[c * bins + i] = (float) (sums[c * bins + i] / members);
+            }
+            double moved = sums[k * bins + k];
+            if (moved < n * 0.001) break;
+        }
+        return centroids;
+    }
+
+    // mean HS of a CDF over bins, each bin at its centre
+    private static double mean(float[] cdf, int at, int bins) {
+        double m = 0, prev = 0;
+        for (int b=0;b<bins;b++) { m += (cdf[at + b] - prev) * (b + 0.5) / bins; prev = cdf[at + b]; }
+        return m;
+    }
+
+    /* k[street-1] buckets for the flop, turn and river, trained on about `train` hands per
+       street (whole random boards). */
+    static void generate(String file, int[] k, int bins, int train, int iterations, long seed) throws IOException {
+        for (int b : k) if (b < 1 || b > MAX_BUCKETS) throw new IllegalArgumentException("Buckets must be 1.." + MAX_BUCKETS);
+        ThreadLocal<Sweep> sweeps = ThreadLocal.withInitial(() -> new Sweep(bins));
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bins).putInt(0);
+        Path tmp = Path.of(file + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.position(HEADER);
+            for (int street=1;street<=3;street++) {
+                long start = System.nanoTime();
+                int cards = street + 2, buckets = k[street - 1], perBoard = CHOOSE[52 - cards][2];
+                // canonical boards, numbered in colex order
+                int[] boardIndex = new int[CHOOSE[52][cards]];
+                Arrays.fill(boardIndex, -1);
+                for (long b = (1L << cards) - 1; b < 1L << 52; b = nextSet(b)) boardIndex[colex(SuitIsomorphism.relabel(b, SuitIsomorphism.boardOrder(b)))] = 0;
+                int boards = 0;
+                for (int r=0;r<boardIndex.length;r++) if (boardIndex[r] == 0) boardIndex[r] = boards++;
+                long[] canonical = new long[boards];
+                for (long b = (1L << cards) - 1; b < 1L << 52; b = nextSet(b)) {
+                    int id = boardIndex[colex(b)];
+                    if (id >= 0) canonical[id] = b;
+                }
+
+                // training points: every hand on boards dealt at random, so common board shapes weigh more
+                SplittableRandom rand = new SplittableRandom(seed + street);
+                int samples = Math.max(1, Math.min(boards, train / perBoard));
+                long[] sampled = new long[samples];
+                for (int s=0;s<samples;s++) {
+                    long b = 0;
+                    while (CardSet.size(b) < cards) b |= 1L << rand.nextInt(52);
+                    sampled[s] = SuitIsomorphism.relabel(b, SuitIsomorphism.boardOrder(b));
+                }
+                int n = samples * perBoard;
+                final float[] points = new float[n * bins];
+                pool.submit(() -> java.util.stream.IntStream.range(0, samples).parallel().forEach(s -> {
+                    Sweep sw = sweeps.get();
+                    sw.features(sampled[s]);
+                    int p = s * perBoard;
+                    for (int h=0;h<HOLES;h++) {
+                        if ((HOLE[h] & sampled[s]) != 0) continue;
+                        System.arraycopy(sw.cdf, h * bins, points, p++ * bins, bins);
+                    }
+                })).join();
+                float[] centroids = kmeans(points, n, bins, buckets, iterations, seed + street);
+
+                // number the buckets by EHS
+                Integer[] byStrength = new Integer[buckets];
+                for (int c=0;c<buckets;c++) byStrength[c] = c;
+                float[] means = new float[buckets];
+                for (int c=0;c<buckets;c++) means[c] = (float) mean(centroids, c * bins, bins);
+                Arrays.sort(byStrength, (x, y) -> Float.compare(means[x], means[y]));
+                int[] rank = new int[buckets];
+                for (int r=0;r<buckets;r++) rank[byStrength[r]] = r;
+
+                // every hand on every canonical board to its nearest centroid
+                byte[] table = new byte[boards * HOLES];
+                Arrays.fill(table, (byte) NONE);
+                final float[] cs = centroids;
+                // a river hand's histogram is a spike, so its bucket only depends on the bin
+                final int[] spike = street == 3 ? new int[bins] : null;
+                if (spike != null) {
+                    float[] cdf = new float[bins];
+                    for (int b=bins-1;b>=0;b--) { cdf[b] = 1; spike[b] = rank[nearest(cdf, 0, cs, buckets, bins)]; }
+                }
+                int chunk = 16;
+                double[] summary = pool.submit(() -> java.util.stream.IntStream.range(0, (canonical.length + chunk - 1) / chunk).parallel().mapToObj(c -> {
+                    double[] part = new double[buckets * 3]; // hands, EHS sum, EHS² sum
+                    Sweep sw = sweeps.get();
+                    for (int id=c*chunk, end=Math.min(canonical.length, id + chunk); id<end; id++) {
+                        sw.features(canonical[id]);
+                        for (int h=0;h<HOLES;h++) {
+                            if ((HOLE[h] & canonical[id]) != 0) continue;
+                            int b = spike != null ? spike[Math.min(bins - 1, (int) (sw.ehs[h] * bins))] : rank[nearest(sw.cdf, h * bins, cs, buckets, bins)];
+                            table[id * HOLES + h] = (byte) b;
+                            part[b * 3]++;
+                            part[b * 3 + 1] += sw.ehs[h];
+                            part[b * 3 + 2] += sw.ehs2[h];
+                        }
+                    }
+                    return part;
+                }).reduce((x, y) -> { for (int i=0;i<x.length;i++) x[i] += y[i]; return x; }).orElseThrow()).join();
+
+                long indexAt = ch.position();
+                ByteBuffer out = ByteBuffer.allocate(boardIndex.length * 4);
+                out.asIntBuffer().put(boardIndex);
+                writeFully(ch, out);
+                long bucketAt = ch.position();
+                writeFully(ch, ByteBuffer.wrap(table));
+                long summaryAt = ch.position();
+                out = ByteBuffer.allocate(buckets * 8);
+                for (int b=0;b<buckets;b++) {
+                    double hands = Math.max(1, summary[b * 3]);
+                    out.putFloat((float) (summary[b * 3 + 1] / hands)).putFloat((float) (summary[b * 3 + 2] / hands));
+                }
+                out.flip();
+                writeFully(ch, out);
+                header.putInt(buckets).putInt(boards).putLong(indexAt).putLong(bucketAt).putLong(summaryAt);
+                long hands = 0;
+                for (int b=0;b<buckets;b++) hands += (long) summary[b * 3];
+                System.out.printf("%s: %,d boards, %,d hands in %d buckets, trained on %,d hands, %.1f s%n",
+                        new String[]{"", "flop", "turn", "river"}[street], boards, hands, buckets, n, (System.nanoTime() - start) / 1e9);
+                StringBuilder line = new StringBuilder("  EHS by bucket:");
+                for (int b=0;b<buckets;b+=Math.max(1, buckets / 10)) line.append(String.format(" %d=%.3f", b, summary[b * 3 + 1] / Math.max(1, summary[b * 3])));
+                System.out.println(line);
+            }
+            header.flip();
+            ch.position(0);
+            writeFully(ch, header);
+        }
+        Files.move(tmp, Path.of(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loaded.remove(file);
+        CardAbstraction t = load(file);
+        for (String[] spot : new String[][]{{"AsKs", "QsJs2d"}, {"AhAd", "Kc7s2h"}, {"7c2d", "KsQsJh"}, {"9h8h", "7h6c2d"}, {"AsKs", "QsJs2d9c"}, {"AsKs", "QsJs2d9c3h"}}) {
+            long hole = CardSet.parse(spot[0]), board = CardSet.parse(spot[1]);
+            int street = CardSet.size(board) - 2, b = t.bucket(hole, board);
+            System.out.printf("%s on %s: %s bucket %d of %d (EHS %.3f, EHS^2 %.3f)%n", spot[0], spot[1],
+                    new String[]{"", "flop", "turn", "river"}[street], b, t.buckets(street), t.ehs(street, b), t.ehs2(street, b));
+        }
+        System.out.println("Wrote " + file);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    /* java Poker buckets-gen [file] [--k F,T,R] [--bins N] [--train HANDS] [--iterations N] [--seed S]
+       java Poker buckets <hole> <board> [--file F] */
+    static void main(String[] args, boolean gen) throws IOException {
+        if (gen) {
+            int first = args.length > 0 && !args[0].startsWith("--") ? 1 : 0;
+            String file = first == 1 ? args[0] : DEFAULT_FILE;
+            int[] k = { 50, 50, 50 };
+            int bins = 50, train = 500_000, iterations = 30;
+            long seed = 1;
+            for (int i=first; i<args.length; i++) {
+                switch (args[i]) {
+                    case "--k" -> k = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    case "--bins" -> bins = Integer.parseInt(args[++i]);
+                    case "--train" -> train = Integer.parseInt(args[++i]);
+                    case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                    case "--seed" -> seed = Long.parseLong(args[++i]);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (k.length == 1) k = new int[]{ k[0], k[0], k[0] };
+            if (k.length != 3) throw new IllegalArgumentException("--k takes one count or flop,turn,river");
+            generate(file, k, bins, train, iterations, seed);
+            return;
+        }
+        if (args.length < 2) throw new IllegalArgumentException("usage: buckets <hole> <board> [--file F]");
+        String file = args.length > 3 && args[2].equals("--file") ? args[3] : DEFAULT_FILE;
+        CardAbstraction t = load(file);
+        if (t == null) throw new IllegalArgumentException("No bucket table " + file + " (java Poker buckets-gen)");
+        long hole = CardSet.parse(args[0]), board = CardSet.parse(args[1]);
+        if (CardSet.size(hole) != 2 || CardSet.size(board) < 3 || CardSet.size(board) > 5 || (hole & board) != 0)
+            throw new IllegalArgumentException("Need 2 hole cards and a 3-5 card board");
+        int street = CardSet.size(board) - 2, b = t.bucket(hole, board);
+        System.out.printf("bucket %d of %d (EHS %.3f, EHS^2 %.3f)%n", b, t.buckets(street), t.ehs(street, b), t.ehs2(street, b));
+    }
+}
+
+/* ===== ICM =====
+   Independent Chip Model: a stack finishes first with probability stack/total and, removed
+   from the field, each later place the same way on what's left (Malmuth-Harville). equity()
+   turns stacks and a payout vector (1st place first) into each stack's expected prize.
+   Up to EXACT_MAX live stacks it is the exact subset DP - P(these players took the top k
+   places) memoized per bitmask, O(2^n * n); bigger fields are sampled: a finishing order
+   under the model is the order of Exp(1)/stack draws, and only the paid places need sorting.
+   java Poker icm <stacks> <payouts> [--samples N], both comma-separated. */
+final class Icm {
+    static final int EXACT_MAX = 18;
+    static final int DEFAULT_SAMPLES = 20_000;
+
+    static double[] equity(List<Player> players, double[] payouts) {
+        int[] stacks = new int[players.size()];
+        for (int i=0;i<stacks.length;i++) stacks[i] = players.get(i).chips;
+        return equity(stacks, payouts);
+    }
+
+    static double[] equity(int[] stacks, double[] payouts) {
+        int live = 0;
+        for (int s : stacks) if (s > 0) live++;
+        return live <= EXACT_MAX ? exact(stacks, payouts) : sampled(stacks, payouts, samplesFor(live), 0x1C3L);
+    }
+
+    // about 2e7 draws in all: every sample costs a pass over the field
+    static int samplesFor(int live) { return (int) Math.max(1000, Math.min(DEFAULT_SAMPLES, 20_000_000L / Math.max(1, live))); }
+
+    static double[] exact(int[] stacks, double[] payouts) {
+        int[] idx = liveSeats(stacks);
+        int n = idx.length, places = Math.min(payouts.length, n);
+        double[] out = new double[stacks.length];
+        if (n == 0) return out;
+        if (n > 30) throw new IllegalArgumentException(n + " stacks is too many for the exact ICM");
+        double total = 0;
+        for (int i : idx) total += stacks[i];
+        double[] taken = new double[1 << n], prob = new double[1 << n];
+        prob[0] = 1;
+        for (int mask=0; mask<(1 << n); mask++) {
+            if (mask != 0) taken[mask] = taken[mask & (mask - 1)] + stacks[idx[Integer.numberOfTrailingZeros(mask)]];
+            double p = prob[mask];
+            int k = Integer.bitCount(mask);
+            if (p == 0 || k >= places) continue;
+            double left = total - taken[mask];
+            for (int i=0;i<n;i++) {
+                if ((mask & 1 << i) != 0) continue;
+                double q = p * stacks[idx[i]] / left;
+                out[idx[i]] += q * payouts[k];
+                prob[mask | 1 << i] += q;
+            }
+        }
+        return out;
+    }
+
+    static double[] sampled(int[] stacks, double[] payouts, int samples, long seed) {
+        int[] idx = liveSeats(stacks);
+        int n = idx.length, places = Math.min(payouts.length, n);
+        double[] out = new double[stacks.length];
+        if (n == 0) return out;
+        // big stacks first: they finish early, so the heap's cut-off tightens sooner
+        idx = Arrays.stream(idx).boxed().sorted((x, y) -> Integer.compare(stacks[y], stacks[x])).mapToInt(Integer::intValue).toArray();
+        double[] inv = new double[n];
+        for (int i=0;i<n;i++) inv[i] = 1.0 / stacks[idx[i]];
+        SplittableRandom rand = new SplittableRandom(seed);
+        double[] heapKey = new double[places];
+        int[] heapSeat = new int[places];
+        for (int t=0; t<samples; t++) {
+            // max-heap of the 'places' smallest finishing times
+            int size = 0;
+            for (int i=0;i<n;i++) {
+                double u = rand.nextDouble();
+                // -log(1-u) >= u, so u alone rules most stacks out once the heap is full
+                if (size == places && u * inv[i] >= heapKey[0]) continue;
+                double key = -Math.log(1 - u) * inv[i];
+                if (size < places) {
+                    int c = size++;
+                    while (c > 0 && heapKey[(c - 1) / 2] < key) { heapKey[c] = heapKey[(c - 1) / 2]; heapSeat[c] = heapSeat[(c - 1) / 2]; c = (c - 1) / 2; }
+                    heapKey[c] = key; heapSeat[c] = i;
+                } else if (key < heapKey[0]) {
+                    siftDown(heapKey, heapSeat, size, key, i);
+                }
+            }
+            // pop the latest first: that's the last paid place
+            for (int place=size-1; place>=0; place--) {
+                out[idx[heapSeat[0]]] += payouts[place];
+                size--;
+                if (size > 0) siftDown(heapKey, heapSeat, size, heapKey[size], heapSeat[size]);
+            }
+        }
+        for (int i=0;i<out.length;i++) out[i] /= samples;
+        return out;
+    }
+
+    // replace the root with (key, seat) and restore the max-heap of the given size
+    private static void siftDown(double[] key, int[] seat, int size, double k, int s) {
+        int c = 0;
+        while (true) {
+            int child = 2 * c + 1;
+            if (child >= size) break;
+            if (child + 1 < size && key[child + 1] > key[child]) child++;
+            if (key[child] <= k) break;
+            key[c] = key[child]; seat[c] = seat[child];
+            c = child;
+        }
+        key[c] = k; seat[c] = s;
+    }
+
+    private static int[] liveSeats(int[] stacks) {
+        int n = 0;
+        for (int s : stacks) if (s > 0) n++;
+        int[] idx = new int[n];
+        n = 0;
+        for (int i=0;i<stacks.length;i++) if (stacks[i] > 0) idx[n++] = i;
+        return idx;
+    }
+
+    static double[] parse(String csv) {
+        return Arrays.stream(csv.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    static void main(String[] args) {
+        if (args.length < 2) throw new IllegalArgumentException("usage: icm <stacks> <payouts> [--samples N]");
+        int[] stacks = Arrays.stream(parse(args[0])).mapToInt(d -> (int) d).toArray();
+        double[] payouts = parse(args[1]);
+        int samples = 0;
+        for (int i=2;i<args.length;i++) {
+            switch (args[i]) {
+                case "--samples" -> samples = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        long start = System.nanoTime();
+        double[] eq = samples > 0 ? sampled(stacks, payouts, samples, System.nanoTime()) : equity(stacks, payouts);
+        double ms = (System.nanoTime() - start) / 1e6;
+        long total = 0;
+        for (int s : stacks) total += s;
+        System.out.println("Stack       chips%      $EV     $EV%");
+        double pool = Arrays.stream(payouts).sum();
+        for (int i=0;i<stacks.length;i++) {
+            System.out.printf("%-10d %7.2f%% %8.2f %7.2f%%%n", stacks[i], stacks[i] * 100.0 / total, eq[i], eq[i] * 100 / pool);
+        }
+        int live = (int) Arrays.stream(stacks).filter(c -> c > 0).count();
+        if (samples == 0 && live > EXACT_MAX) samples = samplesFor(live);
+        System.out.printf("%s in %.2f ms%n", samples > 0 ? "sampled (" + samples + ")" : "exact", ms);
+    }
+}
+
+/* ===== Headless simulation =====
+   java Poker sim [--hands N | --tournaments N] [--players N] [--seed S] [--equity]
+                  [--raise X] [--reraise X] [--call X] [--log FILE] [--mcts MS] [--payouts P1,P2,..]
+                  [--stats FILE] [--ranges]
+   Every seat is an AI and nothing is printed while playing. Hands mode is a cash game where a
+   busted seat rebuys for the starting stack; tournament mode plays each tournament down to
+   one player and counts finishing places per seat. The AI uses the quick heuristic unless
+   --equity is given. --log appends every cash-game hand to FILE as a binary hand history
+   (read it back with java Poker history FILE). --mcts puts an MctsStrategy with an MS
+   millisecond budget in the first seat, against the threshold AI everywhere else. --payouts
+   pays tournament places (the AI then calls all-ins on ICM) and adds each seat's average prize.
+   --stats keeps PlayerStats over every hand and writes them to FILE as CSV at the end.
+   --ranges gives each table an OpponentModel and the AI its equity against those ranges
+   (implies --equity). */
+class Simulator {
+    static final int MAX_TOURNAMENT_HANDS = 100_000;
+
+    static void main(String[] args) throws IOException {
+        GameConfig cfg = new GameConfig();
+        cfg.headless = true;
+        cfg.aiUseEquity = false;
+        Path log = null, statsFile = null;
+        long mcts = 0;
+        long hands = 100_000, tournaments = 0, seed = System.nanoTime();
+        int players = 6;
+        for (int i=0;i<args.length;i++) {
+            switch (args[i]) {
+                case "--hands" -> hands = Long.parseLong(args[++i]);
+                case "--tournaments" -> tournaments = Long.parseLong(args[++i]);
+                case "--players" -> players = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--equity" -> cfg.aiUseEquity = true;
+                case "--raise" -> cfg.aiRaiseThreshold = Double.parseDouble(args[++i]);
+                case "--reraise" -> cfg.aiReraiseThreshold = Double.parseDouble(args[++i]);
+                case "--call" -> cfg.aiCallThreshold = Double.parseDouble(args[++i]);
+                case "--log" -> log = Path.of(args[++i]);
+                case "--mcts" -> mcts = Long.parseLong(args[++i]);
+                case "--payouts" -> cfg.payouts = Icm.parse(args[++i]);
+                case "--stats" -> statsFile = Path.of(args[++i]);
+                case "--ranges" -> { cfg.aiUseRanges = true; cfg.aiUseEquity = true; }
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        cfg.maxPlayers = Math.max(cfg.maxPlayers, players);
+        cfg.numAIs = players - 1;
+        cfg.mctsBudgetMillis = mcts;
+        PlayerStats stats = statsFile == null && !cfg.aiUseRanges ? null : new PlayerStats(100);
+        if (tournaments > 0) tournaments(cfg, tournaments, new Random(seed), stats);
+        else cash(cfg, hands, new Random(seed), log, stats);
+        if (statsFile != null) {
+            stats.print(System.out, 10);
+            stats.export(statsFile);
+        }
+    }
+
+    // strategy for the first seat with --mcts, else null
+    static Strategy underTest(GameConfig cfg) {
+        return cfg.mctsBudgetMillis > 0 ? new MctsStrategy(cfg) : null;
+    }
+
+    static void cash(GameConfig cfg, long hands, Random rand, Path log, PlayerStats stats) throws IOException {
+        PokerGame game = new PokerGame(cfg, rand);
+        HandHistory.Writer file = log == null ? null : new HandHistory.Writer(log);
+        if (file != null) game.events = file;
+        if (stats != null) game.events = file == null ? stats.table() : GameEvents.both(file, stats.table());
+        if (cfg.aiUseRanges) game.modelOpponents(stats);
+        game.setupAIs();
+        Strategy tested = underTest(cfg);
+        game.players.get(0).strategy = tested;
+        List<Player> seats = new ArrayList<>(game.players);
+        int[] rebuys = new int[seats.size()];
+        long start = System.nanoTime();
+        for (long h=0; h<hands; h++) {
+            for (int i=0;i<seats.size();i++) {
+                Player p = seats.get(i);
+                if (p.chips <= 0) { p.chips += cfg.startingChips; rebuys[i]++; }
+            }
+            game.players = new ArrayList<>(seats);
+            game.playHand();
+            game.dealerIndex = (game.dealerIndex + 1) % seats.size();
+        }
+        if (file != null) file.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d hands in %.2f s: %,.0f hands/sec, %.2f decisions/hand%n", hands, secs, hands / secs, game.decisions / (double) hands);
+        for (StrengthCache c : StrengthCache.all()) System.out.println(c);
+        if (tested != null) System.out.println(seats.get(0).name + " " + tested);
+        System.out.println("Seat      chips  rebuys        net   bb/100");
+        for (int i=0;i<seats.size();i++) {
+            Player p = seats.get(i);
+            long net = p.chips - (long) cfg.startingChips * (1 + rebuys[i]);
+            System.out.printf("%-6s %8d %7d %10d %8.2f%n", p.name, p.chips, rebuys[i], net, net * 100.0 / cfg.bigBlind / hands);
+        }
+    }
+
+    static void tournaments(GameConfig cfg, long tournaments, Random rand, PlayerStats stats) {
+        int seatsCount = Math.min(cfg.numAIs + 1, cfg.maxPlayers);
+        long[][] places = new long[seatsCount][seatsCount]; // seat -> finishing place (0 = winner)
+        long hands = 0, decisions = 0, unfinished = 0;
+        long start = System.nanoTime();
+        Strategy tested = underTest(cfg);
+        for (long t=0; t<tournaments; t++) {
+            PokerGame game = new PokerGame(cfg, rand);
+            if (stats != null) game.events = stats.table();
+            if (cfg.aiUseRanges) game.modelOpponents(stats);
+            game.setupAIs();
+            game.players.get(0).strategy = tested;
+            List<Player> seats = new ArrayList<>(game.players);
+            game.dealerIndex = (int)(t % seatsCount);
+            for (int h=0; h<MAX_TOURNAMENT_HANDS && game.players.size() > 1; h++) {
+                game.playHand();
+                hands++;
+                // busted this hand: place = number of players left after them
+                List<Player> out = new ArrayList<>();
+                for (Player p : game.players) if (p.chips <= 0) out.add(p);
+                game.players.removeAll(out);
+                for (Player p : out) places[seats.indexOf(p)][game.players.size()]++;
+                if (game.players.isEmpty()) break;
+                game.dealerIndex = (game.dealerIndex + 1) % game.players.size();
+            }
+            if (game.players.size() > 1) unfinished++;
+            else for (Player p : game.players) places[seats.indexOf(p)][0]++;
+            decisions += game.decisions;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d tournaments, %,d hands in %.2f s: %,.0f hands/sec, %.2f decisions/hand, %.1f hands/tournament%n",
+                tournaments, hands, secs, hands / secs, decisions / (double) Math.max(1, hands), hands / (double) tournaments);
+        if (unfinished > 0) System.out.println(unfinished + " tournament(s) stopped at " + MAX_TOURNAMENT_HANDS + " hands without a winner");
+        for (StrengthCache c : StrengthCache.all()) System.out.println(c);
+        if (tested != null) System.out.println("AI_1 " + tested);
+        System.out.print("Seat  ");
+        for (int k=0;k<seatsCount;k++) System.out.printf("%7s", "#" + (k+1));
+        System.out.println(cfg.payouts != null ? "    prize" : "");
+        for (int i=0;i<seatsCount;i++) {
+            System.out.printf("AI_%-3d", i+1);
+            double prize = 0;
+            for (int k=0;k<seatsCount;k++) {
+                System.out.printf("%6.1f%%", places[i][k] * 100.0 / tournaments);
+                if (cfg.payouts != null && k < cfg.payouts.length) prize += places[i][k] * cfg.payouts[k];
+            }
+            System.out.println(cfg.payouts != null ? String.format("%9.2f", prize / tournaments) : "");
+        }
+    }
+}
+
+/* ===== Multi-table tournament =====
+   java Poker mtt [--players N] [--table-size N] [--threads N] [--seed S] [--level-hands N] [--equity]
+                  [--batch N] [--payouts P1,P2,..] [--stats FILE] [--ranges]
+   Seats N AI entrants at as many tables as needed and plays them in rounds: every table plays
+   one hand as its own fork-join task, then the runner removes busted players, records their
+   finishing places, breaks and rebalances tables and raises the blinds on the GameConfig
+   schedule. Each table has its own Random (split from the seed), its own GameConfig copy and no
+   output stream, so the tables share nothing while a round is running - except with --batch,
+   where every table's AI goes through one BatchingStrategy that decides up to N seats at once
+   (each with its own table's Random, so batching doesn't change the result).
+   --payouts logs the chip leader's ICM prize equity over the whole field at every level.
+   --stats gives every table a PlayerStats tracker and writes the CSV at the end. --ranges
+   gives every table an OpponentModel for the AI's equity (implies --equity). */
+class TournamentRunner {
+    final GameConfig cfg;
+    final int tableSize;
+    final ForkJoinPool pool;
+    final List<PokerGame> tables = new ArrayList<>();
+    final int[] finish;   // entrant id -> finishing place (1 = winner)
+    final long[] bustHand;
+    final int[] handStart; // entrant id -> stack when the current hand was dealt
+    int remaining, level = 0;
+    long rounds = 0, hands = 0, decisions = 0;
+    final List<String> levelLog = new ArrayList<>();
+    BatchingStrategy batching;
+    double[] payouts;     // prizes by place for the ICM column of the level log, or null
+
+    TournamentRunner(GameConfig cfg, int entrants, int tableSize, int threads, long seed) {
+        if (tableSize < 2 || entrants < 2) throw new IllegalArgumentException("Need at least 2 entrants and 2 seats per table");
+        this.cfg = cfg;
+        this.tableSize = tableSize;
+        this.pool = new ForkJoinPool(threads);
+        this.finish = new int[entrants];
+        this.bustHand = new long[entrants];
+        this.handStart = new int[entrants];
+        this.remaining = entrants;
+        SplittableRandom seeds = new SplittableRandom(seed);
+        int tableCount = (entrants + tableSize - 1) / tableSize;
+        for (int t=0; t<tableCount; t++) {
+            GameConfig tc = cfg.copy();
+            tc.headless = true;
+            tables.add(new PokerGame(tc, new Random(seeds.nextLong())));
+        }
+        for (int i=0; i<entrants; i++) { // deal seats round robin so tables start balanced
+            Player p = new Player("P" + i, false, cfg.startingChips);
+            p.id = i;
+            tables.get(i % tableCount).players.add(p);
+        }
+        // the button on a seat the table has: the last tables can be one short
+        for (int t=0; t<tableCount; t++) tables.get(t).dealerIndex = t % tables.get(t).players.size();
+    }
+
+    void run() {
+        long start = System.nanoTime(), levelStart = start;
+        while (remaining > 1) {
+            int lvl = (int)(rounds / cfg.blindLevelHands);
+            if (lvl != level) {
+                levelLog.add(String.format("level %2d: %5d/%-5d %,7d left, %,8.1f ms", level + 1,
+                        cfg.smallBlindAt(level), cfg.bigBlindAt(level), remaining, (System.nanoTime() - levelStart) / 1e6) + leaderIcm());
+                level = lvl;
+                levelStart = System.nanoTime();
+            }
+            for (PokerGame g : tables) {
+                g.cfg.smallBlind = cfg.smallBlindAt(level); g.cfg.bigBlind = cfg.bigBlindAt(level);
+                for (Player p : g.players) handStart[p.id] = p.chips + p.currentBet;
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(tables.size());
+            for (PokerGame g : tables) tasks.add(pool.submit(g::playHand));
+            for (ForkJoinTask<?> t : tasks) t.join();
+            rounds++;
+            hands += tables.size();
+            settleRound();
+        }
+        for (PokerGame g : tables) {
+            decisions += g.decisions;
+            for (Player p : g.players) finish[p.id] = 1;
+        }
+        report((System.nanoTime() - start) / 1e9);
+        pool.shutdown();
+    }
+
+    // the chip leader's share of the chips and of the prize pool under ICM
+    private String leaderIcm() {
+        if (payouts == null) return "";
+        List<Player> field = new ArrayList<>();
+        for (PokerGame g : tables) field.addAll(g.players);
+        long start = System.nanoTime(), chips = 0;
+        double[] eq = Icm.equity(field, payouts);
+        int lead = 0;
+        for (int i=0;i<field.size();i++) {
+            chips += field.get(i).chips;
+            if (field.get(i).chips > field.get(lead).chips) lead = i;
+        }
+        return String.format("; leader %s %.2f%% of chips, %.2f%% of prizes (ICM %.1f ms)", field.get(lead).name,
+                field.get(lead).chips * 100.0 / chips, eq[lead] * 100 / Arrays.stream(payouts).sum(), (System.nanoTime() - start) / 1e6);
+    }
+
+    // remove busted players (bigger stack at the start of the hand finishes higher), then rebalance
+    private void settleRound() {
+        List<Player> busted = new ArrayList<>();
+        for (PokerGame g : tables) {
+            for (Player p : g.players) if (p.chips <= 0) busted.add(p);
+            g.players.removeIf(p -> p.chips <= 0);
+        }
+        // bigger starting stack first, entrant id breaks ties
+        busted.sort(Comparator.comparingInt((Player p) -> -handStart[p.id]).thenComparingInt(p -> p.id));
+        int place = remaining - busted.size() + 1;
+        for (Player p : busted) { finish[p.id] = place++; bustHand[p.id] = rounds; }
+        remaining -= busted.size();
+        if (remaining <= 1) return;
+        rebalance();
+        for (PokerGame g : tables) if (!g.players.isEmpty()) g.dealerIndex = (g.dealerIndex + 1) % g.players.size();
+    }
+
+    private void rebalance() {
+        tables.removeIf(g -> g.players.isEmpty());
+        int needed = (remaining + tableSize - 1) / tableSize;
+        tables.sort(Comparator.comparingInt(g -> g.players.size()));
+        while (tables.size() > needed) { // break the smallest table
+            PokerGame broken = tables.remove(0);
+            decisions += broken.decisions;
+            for (Player p : broken.players) smallest().players.add(p);
+        }
+        while (true) {
+            PokerGame small = smallest(), big = largest();
+            if (big.players.size() - small.players.size() <= 1) break;
+            Player moved = big.players.remove(big.players.size() - 1);
+            if (big.dealerIndex >= big.players.size()) big.dealerIndex = 0;
+            small.players.add(moved);
+        }
+    }
+
+    private PokerGame smallest() {
+        PokerGame best = tables.get(0);
+        for (PokerGame g : tables) if (g.players.size() < best.players.size()) best = g;
+        return best;
+    }
+
+    private PokerGame largest() {
+        PokerGame best = tables.get(0);
+        for (PokerGame g : tables) if (g.players.size() > best.players.size()) best = g;
+        return best;
+    }
+
+    private void report(double secs) {
+        System.out.printf("%,d entrants, %,d rounds, %,d hands in %.2f s on %d thread(s): %,.0f hands/sec, %.2f decisions/hand%n",
+                finish.length, rounds, hands, secs, pool.getParallelism(), hands / secs, decisions / (double) Math.max(1, hands));
+        if (batching != null) System.out.printf("AI decisions batched %.1f at a time%n", batching.averageBatch());
+        for (StrengthCache c : StrengthCache.all()) System.out.println(c);
+        for (String l : levelLog) System.out.println(l);
+        System.out.print("Top finishers:");
+        Integer[] order = new Integer[finish.length];
+        for (int i=0;i<order.length;i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> finish[i]));
+        for (int i=0; i<Math.min(10, order.length); i++) System.out.print(" " + finish[order[i]] + ".P" + order[i]);
+        System.out.println();
+        long[] lasted = bustHand.clone();
+        Arrays.sort(lasted);
+        System.out.printf("Median bust round: %,d of %,d%n", lasted[lasted.length / 2], rounds);
+    }
+
+    static void main(String[] args) throws IOException {
+        GameConfig cfg = new GameConfig();
+        cfg.headless = true;
+        cfg.aiUseEquity = false;
+        int entrants = 6000, tableSize = cfg.maxPlayers, threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.nanoTime();
+        int batch = 0;
+        double[] payouts = null;
+        Path statsFile = null;
+        for (int i=0;i<args.length;i++) {
+            switch (args[i]) {
+                case "--players" -> entrants = Integer.parseInt(args[++i]);
+                case "--table-size" -> tableSize = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--level-hands" -> cfg.blindLevelHands = Integer.parseInt(args[++i]);
+                case "--equity" -> cfg.aiUseEquity = true;
+                case "--batch" -> batch = Integer.parseInt(args[++i]);
+                case "--payouts" -> payouts = Icm.parse(args[++i]);
+                case "--stats" -> statsFile = Path.of(args[++i]);
+                case "--ranges" -> { cfg.aiUseRanges = true; cfg.aiUseEquity = true; }
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        TournamentRunner runner = new TournamentRunner(cfg, entrants, tableSize, threads, seed);
+        runner.payouts = payouts;
+        PlayerStats stats = statsFile == null && !cfg.aiUseRanges ? null : new PlayerStats(100);
+        if (stats != null) for (PokerGame g : runner.tables) g.events = stats.table();
+        if (cfg.aiUseRanges) for (PokerGame g : runner.tables) g.modelOpponents(stats);
+        if (batch > 0) {
+            // a batch can't be bigger than the number of tables playing at once
+            runner.batching = new BatchingStrategy(new ThresholdStrategy(cfg, new Random(seed)), Math.min(batch, threads), 200);
+            for (PokerGame g : runner.tables) g.ai = runner.batching;
+        }
+        runner.run();
+        if (statsFile != null) {
+            stats.print(System.out, 10);
+            stats.export(statsFile);
+        }
+    }
+}
+
+/* ===== Game events =====
+   PokerGame reports everything that happens at the table through a GameEvents sink instead
+   of printing. Arguments are primitives or objects that already exist (players, the game), so
+   a sink that ignores an event costs a virtual call and nothing else. */
+final class Action {
+    static final int FOLD = 0, CHECK = 1, CALL = 2, RAISE = 3, ALL_IN = 4;
+    private Action() {}
+
+    // A decision packed in a long: type in the high word, chips in the low word
+    static long of(int action, int amount) { return (long) action << 32 | (amount & 0xFFFFFFFFL); }
+    static int type(long decision) { return (int) (decision >>> 32); }
+    static int amount(long decision) { return (int) decision; }
+    static String name(int action) {
+        return switch (action) {
+            case FOLD -> "fold"; case CHECK -> "check"; case CALL -> "call"; case RAISE -> "raise"; case ALL_IN -> "all-in";
+            default -> "?";
+        };
+    }
+}
+
+interface GameEvents {
+    default void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {}
+    default void holeCards(Player p) {}
+    default void boardDealt(int street, long board) {} // street 1 = flop, 2 = turn, 3 = river
+    default void yourTurn(Player p, int pot, int toCall) {}
+    default void action(Player p, int action, int amount) {} // amount = chips put in by this action
+    default void potUpdated(int pot) {}
+    default void showdown(Player p, long board, long score) {}
+    default void uncalledReturned(Player p, int amount) {} // chips nobody called, before any pot is awarded
+    default void potAwarded(Player p, int amount, boolean uncontested) {}
+    default void handFinished(PokerGame game) {}
+
+    // both sinks, a first
+    static GameEvents both(GameEvents a, GameEvents b) {
+        return new GameEvents() {
+            @Override public void handStarted(PokerGame g, Player d, Player sb, int sa, Player bb, int ba) { a.handStarted(g, d, sb, sa, bb, ba); b.handStarted(g, d, sb, sa, bb, ba); }
+            @Override public void holeCards(Player p) { a.holeCards(p); b.holeCards(p); }
+            @Override public void boardDealt(int street, long board) { a.boardDealt(street, board); b.boardDealt(street, board); }
+            @Override public void yourTurn(Player p, int pot, int toCall) { a.yourTurn(p, pot, toCall); b.yourTurn(p, pot, toCall); }
+            @Override public void action(Player p, int action, int amount) { a.action(p, action, amount); b.action(p, action, amount); }
+            @Override public void potUpdated(int pot) { a.potUpdated(pot); b.potUpdated(pot); }
+            @Override public void showdown(Player p, long board, long score) { a.showdown(p, board, score); b.showdown(p, board, score); }
+            @Override public void uncalledReturned(Player p, int amount) { a.uncalledReturned(p, amount); b.uncalledReturned(p, amount); }
+            @Override public void potAwarded(Player p, int amount, boolean uncontested) { a.potAwarded(p, amount, uncontested); b.potAwarded(p, amount, uncontested); }
+            @Override public void handFinished(PokerGame g) { a.handFinished(g); b.handFinished(g); }
+        };
+    }
+}
+
+// Silent sink for simulations
+final class NullEvents implements GameEvents {
+    static final NullEvents INSTANCE = new NullEvents();
+    private NullEvents() {}
+}
+
+// The console rendering the game has always had
+class ConsoleEvents implements GameEvents {
+    private final PrintStream out;
+    private PokerGame game;
+    private boolean showdown;
+    private final List<Player> winners = new ArrayList<>(); // showdown winners, named together at the end of the hand
+    private final List<Integer> won = new ArrayList<>();
+    private Player returnedTo; // the uncalled bet, which the console has always shown as part of an uncontested pot
+    private int returned;
+    ConsoleEvents(PrintStream out) { this.out = out; }
+
+    @Override public void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {
+        this.game = game;
+        showdown = false;
+        winners.clear();
+        won.clear();
+        returnedTo = null;
+        returned = 0;
+        out.println("\n--- New hand ---");
+        out.println("Dealer: " + dealer.name + " | Small blind: " + sb.name + " ("+sbAmount+") | Big blind: " + bb.name + " ("+bbAmount+")");
+    }
+    @Override public void holeCards(Player p) {
+        if (p.isHuman) out.println("\nYour cards: " + p.hole.get(0) + " " + p.hole.get(1)); // show human hole for convenience
+    }
+    @Override public void boardDealt(int street, long board) {
+        String name = street == 1 ? "FLOP" : street == 2 ? "TURN" : "RIVER";
+        out.println("\n*** " + name + ": " + game.boardToString());
+    }
+    @Override public void yourTurn(Player p, int pot, int toCall) {
+        out.println("\nYour turn. Board: " + game.boardToString());
+        out.println("Your cards: " + p.hole.get(0) + " " + p.hole.get(1));
+        out.println("Pot: " + pot + " | Your stack: " + p.chips + " | To call: " + toCall);
+    }
+    @Override public void action(Player p, int action, int amount) {
+        switch (action) {
+            case Action.FOLD -> out.println(p.name + " folds.");
+            case Action.CHECK -> out.println(p.name + " checks.");
+            case Action.CALL -> out.println(p.name + " calls " + amount + (p.allIn ? " (all-in)" : ""));
+            case Action.RAISE -> out.println(p.name + " raises by " + amount + " (current bet: " + p.currentBet + ")");
+            case Action.ALL_IN -> out.println(p.name + " goes all-in with " + amount);
+            default -> out.println(p.name + " ?");
+        }
+    }
+    @Override public void potUpdated(int pot) { out.println("Pot is now: " + pot); }
+    @Override public void showdown(Player p, long board, long score) {
+        if (!showdown) { out.println("\n--- Showdown ---"); showdown = true; }
+        List<Card> seven = new ArrayList<>(game.board);
+        seven.addAll(p.hole);
+        out.println(p.name + (p.isHuman ? " (you): " : ": ") + p.hole.get(0) + " " + p.hole.get(1) + " => " + new HandValue(score, seven).pretty());
+    }
+    @Override public void uncalledReturned(Player p, int amount) { returnedTo = p; returned = amount; }
+    @Override public void potAwarded(Player p, int amount, boolean uncontested) {
+        if (uncontested) out.println("\nAll others folded. " + p.name + " wins the pot of " + (amount + (p == returnedTo ? returned : 0)) + " chips.");
+        else { winners.add(p); won.add(amount); }
+    }
+    @Override public void handFinished(PokerGame game) {
+        if (!winners.isEmpty()) {
+            // side pots can pay winners different amounts; then each gets their own
+            boolean even = won.stream().distinct().count() == 1;
+            out.print("Winner(s): ");
+            if (even) out.println(winners.stream().map(p->p.name).collect(Collectors.joining(", ")) + " split pot ("+won.get(0)+" each).");
+            else {
+                List<String> each = new ArrayList<>();
+                for (int i=0;i<winners.size();i++) each.add(winners.get(i).name + " (" + won.get(i) + ")");
+                out.println(String.join(", ", each) + ".");
+            }
+        }
+        out.println("\nStacks:");
+        for (Player p : game.players) out.println(" - " + p);
+    }
+}
+
+/* Batched binary log of every event: fixed 16-byte records (type, seat, short arg, int arg,
+   long arg) collected in a direct buffer and written through a FileChannel when it fills up.
+   Nothing is formatted and nothing is allocated per event. close() flushes. */
+class FileEvents implements GameEvents, AutoCloseable {
+    static final byte HAND = 1, HOLE = 2, BOARD = 3, ACTION = 4, POT = 5, SHOWDOWN = 6, AWARD = 7, END = 8, RETURNED = 9;
+    private final FileChannel channel;
+    private final ByteBuffer buf;
+
+    FileEvents(Path file) throws IOException { this(file, 1 << 16); }
+    FileEvents(Path file, int bufferBytes) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        buf = ByteBuffer.allocateDirect(Math.max(16, bufferBytes & ~15));
+    }
+
+    private void record(byte type, int seat, int s, int a, long b) {
+        if (buf.remaining() < 16) flush();
+        buf.put(type).put((byte) seat).putShort((short) s).putInt(a).putLong(b);
+    }
+
+    void flush() {
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) channel.write(buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buf.clear();
+    }
+
+    @Override public void close() throws IOException { flush(); channel.close(); }
+
+    @Override public void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {
+        record(HAND, dealer.seat, game.players.size(), sbAmount, bbAmount);
+    }
+    @Override public void holeCards(Player p) {
+        record(HOLE, p.seat, 0, p.chips, CardSet.of(p.hole));
+    }
+    @Override public void boardDealt(int street, long board) { record(BOARD, 0, street, 0, board); }
+    @Override public void action(Player p, int action, int amount) { record(ACTION, p.seat, action, amount, p.currentBet); }
+    @Override public void potUpdated(int pot) { record(POT, 0, 0, pot, 0); }
+    @Override public void showdown(Player p, long board, long score) { record(SHOWDOWN, p.seat, 0, 0, score); }
+    @Override public void uncalledReturned(Player p, int amount) { record(RETURNED, p.seat, 0, amount, 0); }
+    @Override public void potAwarded(Player p, int amount, boolean uncontested) { record(AWARD, p.seat, uncontested ? 1 : 0, amount, 0); }
+    @Override public void handFinished(PokerGame game) { record(END, 0, game.players.size(), 0, 0); }
+}
+
+/* ===== Player statistics =====
+   PlayerStats keeps running HUD numbers for every player name it sees: VPIP, PFR, 3-bet,
+   postflop aggression factor, went-to-showdown and won-at-showdown, and net chips overall and
+   at showdown - for all hands and for the last `window` hands. Each table gets its own
+   tracker (table()) that follows the hand being played through GameEvents and, when it ends,
+   folds one packed summary per seat into that player's record. Raw hands are never kept: the
+   window is a ring of two ints per hand per player. A record is only ever written by the
+   table its player sits at, so its lock is uncontended; it is there so a snapshot taken
+   from another thread sees whole hands. */
+final class PlayerStats {
+    // indexes into a record's totals; the same per-hand bits drive them all
+    static final int HANDS = 0, VPIP = 1, PFR = 2, THREE_BET_CHANCES = 3, THREE_BETS = 4, AGGRESSIVE = 5, CALLS = 6,
+            SAW_FLOP = 7, SHOWDOWNS = 8, WON_SHOWDOWN = 9, NET = 10, SHOWDOWN_NET = 11, STATS = 12;
+    // per-hand flags; postflop bets+raises and calls are counted in bits 8-15 and 16-23
+    private static final int F_VPIP = 1, F_PFR = 2, F_3B_CHANCE = 4, F_3B = 8, F_FLOP = 16, F_SHOWDOWN = 32, F_WON_SHOWDOWN = 64;
+
+    final int window;
+    private final Map<String,Record> records = new ConcurrentHashMap<>();
+
+    PlayerStats(int window) { this.window = Math.max(1, window); }
+
+    static final class Record {
+        final String name;
+        final long[] total = new long[STATS], recent = new long[STATS];
+        private final int[] ringFlags, ringNet;
+        private int next, filled;
+
+        Record(String name, int window) { this.name = name; ringFlags = new int[window]; ringNet = new int[window]; }
+
+        synchronized void add(int flags, int net) {
+            apply(total, flags, net, 1);
+            if (filled == ringFlags.length) apply(recent, ringFlags[next], ringNet[next], -1);
+            else filled++;
+            ringFlags[next] = flags;
+            ringNet[next] = net;
+            apply(recent, flags, net, 1);
+            next = (next + 1) % ringFlags.length;
+        }
+
+        private static void apply(long[] into, int flags, int net, int sign) {
+            into[HANDS] += sign;
+            if ((flags & F_VPIP) != 0) into[VPIP] += sign;
+            if ((flags & F_PFR) != 0) into[PFR] += sign;
+            if ((flags & F_3B_CHANCE) != 0) into[THREE_BET_CHANCES] += sign;
+            if ((flags & F_3B) != 0) into[THREE_BETS] += sign;
+            if ((flags & F_FLOP) != 0) into[SAW_FLOP] += sign;
+            if ((flags & F_SHOWDOWN) != 0) { into[SHOWDOWNS] += sign; into[SHOWDOWN_NET] += (long) sign * net; }
+            if ((flags & F_WON_SHOWDOWN) != 0) into[WON_SHOWDOWN] += sign;
+            into[AGGRESSIVE] += sign * (flags >>> 8 & 0xFF);
+            into[CALLS] += sign * (flags >>> 16 & 0xFF);
+            into[NET] += (long) sign * net;
+        }
+
+        // {all hands, last window hands}, consistent with each other
+        synchronized long[][] snapshot() { return new long[][] { total.clone(), recent.clone() }; }
+
+        // over the window, num / den and num / (num + other), pulled toward prior as if it had been seen priorCount more times
+        synchronized double rate(int num, int den, double prior, int priorCount) {
+            return (recent[num] + prior * priorCount) / (recent[den] + priorCount);
+        }
+        synchronized double share(int num, int other, double prior, int priorCount) {
+            return (recent[num] + prior * priorCount) / (recent[num] + recent[other] + priorCount);
+        }
+    }
+
+    Record record(String name) { return records.computeIfAbsent(name, n -> new Record(n, window)); }
+
+    Collection<Record> records() { return records.values(); }
+
+    // events for one table; install with game.events (or GameEvents.both)
+    GameEvents table() { return new Tracker(); }
+
+    private final class Tracker implements GameEvents {
+        private PokerGame game;
+        private Player[] seat = new Player[10];
+        private Record[] rec = new Record[10];
+        private int[] start = new int[10], flags = new int[10], bet = new int[10];
+        private int seats, street, highBet, preflopRaises;
+
+        @Override public void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {
+            this.game = game;
+            List<Player> ps = game.players;
+            seats = ps.size();
+            if (seat.length < seats) {
+                seat = new Player[seats]; rec = new Record[seats];
+                start = new int[seats]; flags = new int[seats]; bet = new int[seats];
+            }
+            for (Player p : ps) {
+                int s = p.seat;
+                seat[s] = p;
+                if (rec[s] == null || !rec[s].name.equals(p.name)) rec[s] = record(p.name);
+                start[s] = p.chips + p.currentBet;
+                flags[s] = 0;
+                bet[s] = p.currentBet;
+            }
+            street = 0;
+            highBet = Math.max(sbAmount, bbAmount);
+            preflopRaises = 0;
+        }
+
+        @Override public void action(Player p, int action, int amount) {
+            int s = p.seat;
+            bet[s] += amount;
+            boolean raise = (action == Action.RAISE || action == Action.ALL_IN) && bet[s] > highBet;
+            if (street == 0) {
+                if (amount > 0) flags[s] |= F_VPIP;
+                if (preflopRaises == 1 && (flags[s] & (F_PFR | F_3B_CHANCE)) == 0) { // facing the first raise
+                    flags[s] |= F_3B_CHANCE;
+                    if (raise) flags[s] |= F_3B;
+                }
+                if (raise) { flags[s] |= F_PFR; preflopRaises++; }
+            } else if (raise) {
+                if ((flags[s] >>> 8 & 0xFF) < 0xFF) flags[s] += 1 << 8;
+            } else if (amount > 0) {
+                if ((flags[s] >>> 16 & 0xFF) < 0xFF) flags[s] += 1 << 16;
+            }
+            if (bet[s] > highBet) highBet = bet[s];
+        }
+
+        @Override public void boardDealt(int street, long board) {
+            this.street = street;
+            highBet = 0;
+            Arrays.fill(bet, 0, seats, 0);
+            if (street == 1) for (int s=0;s<seats;s++) if (!seat[s].folded) flags[s] |= F_FLOP;
+        }
+
+        @Override public void showdown(Player p, long board, long score) { flags[p.seat] |= F_SHOWDOWN; }
+
+        // a side pot nobody else could win isn't a showdown won
+        @Override public void potAwarded(Player p, int amount, boolean uncontested) {
+            if (!uncontested && game.pots.wonContested(p.seat)) flags[p.seat] |= F_WON_SHOWDOWN;
+        }
+
+        @Override public void handFinished(PokerGame game) {
+            for (int s=0;s<seats;s++) rec[s].add(flags[s], seat[s].chips - start[s]);
+        }
+    }
+
+    static double pct(long n, long d) { return d == 0 ? 0 : n * 100.0 / d; }
+
+    /* CSV, one line per player: all hands, then the same columns over the last window hands.
+       AF = postflop bets and raises per call. */
+    void export(PrintStream out) {
+        String cols = "hands,vpip,pfr,3bet,af,wtsd,wsd,net,sd_net";
+        out.println("player," + cols + "," + Arrays.stream(cols.split(",")).map(c -> "last_" + c).collect(Collectors.joining(",")));
+        List<Record> all = new ArrayList<>(records.values());
+        all.sort(Comparator.comparing(r -> r.name));
+        for (Record r : all) {
+            long[][] snap = r.snapshot();
+            StringBuilder line = new StringBuilder(r.name);
+            for (long[] t : snap) {
+                line.append(String.format(Locale.ROOT, ",%d,%.1f,%.1f,%.1f,%.2f,%.1f,%.1f,%d,%d", t[HANDS], pct(t[VPIP], t[HANDS]), pct(t[PFR], t[HANDS]),
+                        pct(t[THREE_BETS], t[THREE_BET_CHANCES]), t[AGGRESSIVE] / (double) Math.max(1, t[CALLS]), pct(t[SHOWDOWNS], t[SAW_FLOP]),
+                        pct(t[WON_SHOWDOWN], t[SHOWDOWNS]), t[NET], t[SHOWDOWN_NET]));
+            }
+            out.println(line);
+        }
+    }
+
+    void export(Path file) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, java.nio.charset.StandardCharsets.UTF_8)) { export(out); }
+    }
+
+    // the first few players, for a console summary
+    void print(PrintStream out, int max) {
+        out.printf("%-8s %9s %6s %6s %6s %5s %6s %6s%n", "player", "hands", "VPIP", "PFR", "3bet", "AF", "WTSD", "W$SD");
+        records.values().stream().sorted(Comparator.comparing(r -> r.name)).limit(max).forEach(r -> {
+            long[] t = r.snapshot()[0];
+            out.printf("%-8s %,9d %5.1f%% %5.1f%% %5.1f%% %5.2f %5.1f%% %5.1f%%%n", r.name, t[HANDS], pct(t[VPIP], t[HANDS]), pct(t[PFR], t[HANDS]),
+                    pct(t[THREE_BETS], t[THREE_BET_CHANCES]), t[AGGRESSIVE] / (double) Math.max(1, t[CALLS]), pct(t[SHOWDOWNS], t[SAW_FLOP]),
+                    pct(t[WON_SHOWDOWN], t[SHOWDOWNS]));
+        });
+    }
+}
+
+/* ===== Opponent model =====
+   OpponentModel follows one table through GameEvents and keeps, for every seat, a weight on
+   each of the 1326 hole-card combinations. Each action multiplies the actor's weights by how
+   likely that action is with each hand - a soft step that keeps the top share of the range
+   the player takes it with, from their own recent frequencies in PlayerStats: VPIP for a
+   pre-flop call, PFR for an open, 3-bet for a re-raise, and bets+raises against calls after
+   the flop (a check softly caps the range instead). A hand's place is its weighted percentile
+   within the seat's current range, by pre-flop equity or by the made hand on the board; the
+   sort is done once per street. The multiply is a branch-free loop over float arrays, so the
+   JIT vectorizes it. equity() deals each live opponent's hand from its weights instead of
+   uniformly, exactly against a single opponent from the turn on. The model is read by the
+   strategy deciding at its table while that table waits, never concurrently with an update. */
+final class OpponentModel implements GameEvents {
+    static final int COMBOS = 1326;
+    static final long[] MASK = new long[COMBOS]; // combination -> its two cards as a CardSet
+    static final float SOFTNESS = 0.03f;         // width of the step, in share of the range
+    static final float FLOOR = 0.02f;            // likelihood kept outside the step: bluffs, slowplays, mistakes
+    static final float CHECK_CAP = 0.5f;         // weight left on the hands that would have bet
+    static final float POSTFLOP_CALL = 0.6f;     // share of a range that calls a bet after the flop
+    static final int PRIOR_HANDS = 20;           // frequencies start at these priors, worth this many hands
+    static final double VPIP_PRIOR = 0.3, PFR_PRIOR = 0.15, THREE_BET_PRIOR = 0.08, AGGRESSION_PRIOR = 0.5;
+    static {
+        int i = 0;
+        for (int a=0;a<52;a++) for (int b=a+1;b<52;b++) MASK[i++] = 1L << a | 1L << b;
+    }
+
+    // every combination weakest first by heads-up pre-flop equity, as key << 11 | combination
+    private static final class Preflop {
+        static final long[] ORDER = order();
+        private static long[] order() {
+            PreflopTable table = PreflopTable.load(new GameConfig().preflopTable);
+            EquityEngine engine = table == null ? new EquityEngine() : null;
+            int[] key = new int[PreflopTable.CLASSES];
+            for (int c=0;c<key.length;c++) {
+                double eq = table != null ? table.equity(c, 1) : engine.estimate(PreflopTable.representative(c), 0L, 0L, 1, 2000, 0, c).equity;
+                key[c] = (int) (eq * 1_000_000);
+            }
+            long[] order = new long[COMBOS];
+            for (int i=0;i<COMBOS;i++) order[i] = (long) key[PreflopTable.handClass(MASK[i])] << 11 | i;
+            Arrays.sort(order);
+            return order;
+        }
+    }
+
+    private final PlayerStats stats;
+    private Player[] seat = new Player[10];
+    private PlayerStats.Record[] rec = new PlayerStats.Record[10];
+    private float[][] weight = new float[10][COMBOS];
+    private int[] bet = new int[10];
+    private long narrowed;               // seats whose weights aren't uniform over the live hands
+    private int seats, street, highBet, preflopRaises;
+    private long[] order = Preflop.ORDER; // this street's live combinations weakest first, key << 11 | combination
+    private int ordered = COMBOS;
+    private final long[] postflop = new long[COMBOS];
+    private final float[] place = new float[COMBOS]; // scratch: each combination's percentile in one range
+    private float[][] cdf = new float[9][COMBOS];   // scratch for equity(): cumulative weights per opponent
+    private long[] dealt = new long[9];
+
+    // frequencies come from stats, which needs its own table() installed on the same game
+    OpponentModel(PlayerStats stats) { this.stats = stats; }
+
+    // weights by combination (index into MASK) for a seat in the current hand
+    float[] range(int s) { return weight[s]; }
+
+    @Override public void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {
+        List<Player> ps = game.players;
+        seats = ps.size();
+        if (seat.length < seats) {
+            seat = new Player[seats]; rec = new PlayerStats.Record[seats];
+            weight = new float[seats][COMBOS]; bet = new int[seats];
+            cdf = new float[seats - 1][COMBOS]; dealt = new long[seats - 1];
+        }
+        for (Player p : ps) {
+            int s = p.seat;
+            seat[s] = p;
+            if (rec[s] == null || !rec[s].name.equals(p.name)) rec[s] = stats.record(p.name);
+            Arrays.fill(weight[s], 1f);
+            bet[s] = p.currentBet;
+        }
+        narrowed = 0;
+        street = 0;
+        order = Preflop.ORDER;
+        ordered = COMBOS;
+        highBet = Math.max(sbAmount, bbAmount);
+        preflopRaises = 0;
+    }
+
+    @Override public void action(Player p, int action, int amount) {
+        int s = p.seat;
+        bet[s] += amount;
+        boolean raise = (action == Action.RAISE || action == Action.ALL_IN) && bet[s] > highBet;
+        PlayerStats.Record r = rec[s];
+        if (action == Action.FOLD) {
+            // out of the hand, nothing left to narrow
+        } else if (street == 0) {
+            if (raise) narrow(s, preflopRaises == 0 ? r.rate(PlayerStats.PFR, PlayerStats.HANDS, PFR_PRIOR, PRIOR_HANDS)
+                    : r.rate(PlayerStats.THREE_BETS, PlayerStats.THREE_BET_CHANCES, THREE_BET_PRIOR, PRIOR_HANDS), FLOOR, 1f);
+            else if (amount > 0) narrow(s, r.rate(PlayerStats.VPIP, PlayerStats.HANDS, VPIP_PRIOR, PRIOR_HANDS), FLOOR, 1f);
+        } else {
+            double aggression = r.share(PlayerStats.AGGRESSIVE, PlayerStats.CALLS, AGGRESSION_PRIOR, PRIOR_HANDS);
+            if (raise) narrow(s, aggression, FLOOR, 1f);
+            else if (amount > 0) narrow(s, POSTFLOP_CALL, FLOOR, 1f);
+            else narrow(s, aggression, 1f, CHECK_CAP);
+        }
+        if (street == 0 && raise) preflopRaises++;
+        if (bet[s] > highBet) highBet = bet[s];
+    }
+
+    @Override public void boardDealt(int street, long board) {
+        this.street = street;
+        highBet = 0;
+        Arrays.fill(bet, 0, seats, 0);
+        int boardState = LookupEvaluator.walk(0, board), n = 0;
+        for (int i=0;i<COMBOS;i++) {
+            if ((MASK[i] & board) != 0) {
+                for (int s=0;s<seats;s++) weight[s][i] = 0;
+                continue;
+            }
+            postflop[n++] = LookupEvaluator.score(boardState, board, MASK[i]) << 11 | i;
+        }
+        Arrays.sort(postflop, 0, n);
+        order = postflop;
+        ordered = n;
+    }
+
+    /* Multiplies seat s's weights by lo below and hi above the point that leaves `keep` of
+       its range on top, stepping over SOFTNESS of the range. */
+    private void narrow(int s, double keep, float lo, float hi) {
+        float[] w = weight[s];
+        narrowed |= 1L << s;
+        percentiles(w);
+        float edge = (float) (1 - Math.min(1, Math.max(0, keep))), scale = 1 / SOFTNESS, span = hi - lo;
+        for (int i=0;i<COMBOS;i++) {
+            float x = (place[i] - edge) * scale;
+            w[i] *= lo + span * (0.5f + 0.5f * x / (1 + Math.abs(x)));
+        }
+    }
+
+    // place[] = each live combination's weighted percentile in w (hands with equal keys share one)
+    private void percentiles(float[] w) {
+        float total = 0;
+        for (int k=0;k<ordered;k++) total += w[(int) (order[k] & 2047)];
+        if (total <= 0) { // the model was wrong about everything left: start over from the live hands
+            for (int k=0;k<ordered;k++) w[(int) (order[k] & 2047)] = 1;
+            total = ordered;
+        } else if (total < 1e-6f) { // keep well clear of float underflow
+            float up = 1 / total;
+            for (int i=0;i<COMBOS;i++) w[i] *= up;
+            total = 1;
+        }
+        float inv = 1 / total, below = 0;
+        for (int k=0;k<ordered;) {
+            long key = order[k] >>> 11;
+            int end = k;
+            float group = 0;
+            while (end < ordered && order[end] >>> 11 == key) group += w[(int) (order[end++] & 2047)];
+            float q = (below + group / 2) * inv;
+            for (; k<end; k++) place[(int) (order[k] & 2047)] = q;
+            below += group;
+        }
+    }
+
+    /* All-in equity of `hole` for seat `me` against every other live seat's range. Stops after
+       maxSamples or budgetNanos, like EquityEngine. Seats that haven't been narrowed get random
+       cards, which is the same thing and cheaper. */
+    Equity equity(int me, long hole, long board, int maxSamples, long budgetNanos, long seed) {
+        long start = System.nanoTime(), dead = hole | board;
+        int n = 0, random = 0;
+        for (int s=0;s<seats;s++) {
+            if (s == me || seat[s].folded) continue;
+            if ((narrowed & 1L << s) == 0) { random++; continue; }
+            float[] w = weight[s], c = cdf[n++];
+            float sum = 0;
+            for (int i=0;i<COMBOS;i++) { sum += (MASK[i] & dead) == 0 ? w[i] : 0; c[i] = sum; }
+            if (sum <= 0) for (int i=0;i<COMBOS;i++) { sum += (MASK[i] & dead) == 0 ? 1 : 0; c[i] = sum; }
+        }
+        if (n == 0 && random == 0) return new Equity(1, 1, 0, 1, System.nanoTime() - start, true);
+        if (n == 1 && random == 0 && CardSet.size(board) >= 4) return exact(hole, board, cdf[0], start);
+        SplittableRandom rand = new SplittableRandom(seed);
+        long deadline = budgetNanos > 0 ? start + budgetNanos : Long.MAX_VALUE;
+        int missing = 5 - CardSet.size(board);
+        long samples = 0, wins = 0, ties = 0;
+        double tieShare = 0;
+        deal:
+        for (int k=0; k<maxSamples; k++) {
+            if ((k & 31) == 0 && System.nanoTime() >= deadline) break;
+            long used = dead;
+            for (int o=0;o<n;o++) {
+                long h = draw(cdf[o], used, rand);
+                if (h == 0) continue deal;
+                dealt[o] = h;
+                used |= h;
+            }
+            for (int o=n;o<n+random;o++) {
+                long c1 = 1L << CardSet.random(CardSet.remaining(used), rand); used |= c1;
+                long c2 = 1L << CardSet.random(CardSet.remaining(used), rand); used |= c2;
+                dealt[o] = c1 | c2;
+            }
+            long full = board;
+            for (int m=0;m<missing;m++) { long c = 1L << CardSet.random(CardSet.remaining(used), rand); full |= c; used |= c; }
+            int boardState = LookupEvaluator.walk(0, full);
+            long mine = LookupEvaluator.score(boardState, full, hole);
+            int better = 0, equal = 0;
+            for (int o=0; o<n+random && better == 0; o++) {
+                long theirs = LookupEvaluator.score(boardState, full, dealt[o]);
+                if (theirs > mine) better++;
+                else if (theirs == mine) equal++;
+            }
+            samples++;
+            if (better > 0) continue;
+            if (equal == 0) wins++;
+            else { ties++; tieShare += 1.0 / (equal + 1); }
+        }
+        long d = Math.max(1, samples);
+        return new Equity(samples, wins / (double) d, ties / (double) d, (wins + tieShare) / d, System.nanoTime() - start, false);
+    }
+
+    // a combination from cumulative weights c that misses `used`, or 0 after a few tries
+    private static long draw(float[] c, long used, SplittableRandom rand) {
+        float total = c[COMBOS - 1];
+        for (int tries=0; tries<16; tries++) {
+            float u = (float) (rand.nextDouble() * total);
+            int lo = 0, hi = COMBOS - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (c[mid] > u) hi = mid; else lo = mid + 1;
+            }
+            if ((MASK[lo] & used) == 0 && c[lo] > u) return MASK[lo];
+        }
+        return 0;
+    }
+
+    // one opponent: every river card (if any) times every combination, weighted
+    private static Equity exact(long hole, long board, float[] c, long start) {
+        long deals = 0;
+        double win = 0, tie = 0, total = 0;
+        long rivers = CardSet.size(board) == 5 ? 0 : CardSet.remaining(hole | board);
+        do {
+            long river = rivers == 0 ? 0 : Long.lowestOneBit(rivers), full = board | river;
+            int boardState = LookupEvaluator.walk(0, full);
+            long mine = LookupEvaluator.score(boardState, full, hole);
+            for (int i=0;i<COMBOS;i++) {
+                float w = c[i] - (i == 0 ? 0 : c[i-1]);
+                if (w <= 0 || (MASK[i] & river) != 0) continue;
+                long theirs = LookupEvaluator.score(boardState, full, MASK[i]);
+                total += w;
+                deals++;
+                if (mine > theirs) win += w;
+                else if (mine == theirs) tie += w;
+            }
+            rivers &= rivers - 1;
+        } while (rivers != 0);
+        if (total <= 0) return new Equity(0, 0, 0, 0, System.nanoTime() - start, true);
+        return new Equity(deals, win / total, tie / total, (win + tie / 2) / total, System.nanoTime() - start, true);
+    }
+}
+
+/* ===== Binary hand history =====
+   File = 8-byte header (MAGIC, VERSION) followed by hands. Each hand is prefixed with its
+   length as a varint so a scan can skip it without parsing. Seats are limited to 16. Inside a hand, numbers are
+   unsigned LEB128 varints and cards are single bytes (Card.index, 0xFF = unknown):
+
+     handNo, seats, dealer, sb, bb      (the blinds are the two seats after the dealer)
+     per seat: playerId, starting stack, card, card
+     records until H_END:
+       H_ACTION  byte (type << 4 | seat), amount
+       H_BOARD   street, count, count card bytes
+       H_PAYOUT  seat, amount
+
+   A typical six-handed hand is 40-60 bytes. */
+final class HandHistory {
+    static final int MAGIC = 0x50484831; // "PHH1"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int H_END = 0, H_ACTION = 1, H_BOARD = 2, H_PAYOUT = 3;
+    static final int NO_CARD = 0xFF;
+    private HandHistory() {}
+
+    // Primitive callbacks for Reader.replay; return false from hand() to skip the rest of it.
+    interface Visitor {
+        default boolean hand(long handNo, int seats, int dealer, int sb, int bb) { return true; }
+        default void seat(int seat, int playerId, int stack, int card1, int card2) {}
+        default void action(int seat, int type, int amount) {}
+        default void board(int street, long cards) {}
+        default void payout(int seat, int amount) {}
+        default void endHand() {}
+    }
+
+    /* Append-only writer fed by PokerGame's events. A hand is built in a small byte array and
+       copied into a direct buffer when it finishes; the buffer goes to the FileChannel when full. */
+    static final class Writer implements GameEvents, AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        private byte[] hand = new byte[256];
+        private int len;
+        private int[] cardAt = new int[10]; // where each seat's hole-card bytes are in the hand
+        private long handNo;
+        private long boardSoFar;
+
+        Writer(Path file) throws IOException { this(file, 1 << 20); }
+        Writer(Path file, int bufferBytes) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buf = ByteBuffer.allocateDirect(Math.max(4096, bufferBytes));
+            if (channel.size() == 0) {
+                buf.putInt(MAGIC).putInt(VERSION);
+            } else {
+                ByteBuffer h = ByteBuffer.allocate(HEADER);
+                channel.read(h, 0);
+                if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION) throw new IOException(file + " is not a hand history file");
+            }
+            channel.position(channel.size()); // append
+        }
+
+        private void b(int v) {
+            if (len == hand.length) hand = Arrays.copyOf(hand, len * 2);
+            hand[len++] = (byte) v;
+        }
+        private void v(long v) {
+            while ((v & ~0x7FL) != 0) { b((int) (v & 0x7F) | 0x80); v >>>= 7; }
+            b((int) v);
+        }
+
+        @Override public void handStarted(PokerGame game, Player dealer, Player sb, int sbAmount, Player bb, int bbAmount) {
+            len = 0;
+            boardSoFar = 0;
+            List<Player> ps = game.players;
+            v(handNo++); v(ps.size()); v(dealer.seat); v(sbAmount); v(bbAmount);
+            if (cardAt.length < ps.size()) cardAt = new int[ps.size()];
+            for (Player p : ps) {
+                v(p.id >= 0 ? p.id : p.seat);
+                v(p.chips + p.currentBet); // blinds are already posted
+                cardAt[p.seat] = len;
+                b(NO_CARD); b(NO_CARD);    // filled in by holeCards
+            }
+        }
+        @Override public void holeCards(Player p) {
+            hand[cardAt[p.seat]] = (byte) p.hole.get(0).index;
+            hand[cardAt[p.seat] + 1] = (byte) p.hole.get(1).index;
+        }
+
+        @Override public void boardDealt(int street, long board) {
+            long fresh = board & ~boardSoFar;
+            boardSoFar = board;
+            b(H_BOARD); b(street); b(Long.bitCount(fresh));
+            for (long m = fresh; m != 0; m &= m - 1) b(Long.numberOfTrailingZeros(m));
+        }
+        @Override public void action(Player p, int action, int amount) {
+            b(H_ACTION); b(action << 4 | p.seat); v(amount);
+        }
+        @Override public void uncalledReturned(Player p, int amount) { potAwarded(p, amount, false); } // a payout, as imported
+        @Override public void potAwarded(Player p, int amount, boolean uncontested) {
+            b(H_PAYOUT); b(p.seat); v(amount);
+        }
+        @Override public void handFinished(PokerGame game) {
+            b(H_END);
+            if (buf.remaining() < len + 5) flush();
+            if (buf.capacity() < len + 5) { write(ByteBuffer.wrap(varint(len))); write(ByteBuffer.wrap(hand, 0, len)); return; }
+            for (long v = len; ; v >>>= 7) {
+                if ((v & ~0x7FL) == 0) { buf.put((byte) v); break; }
+                buf.put((byte) (v & 0x7F | 0x80));
+            }
+            buf.put(hand, 0, len);
+        }
+
+        private static byte[] varint(long v) {
+            byte[] out = new byte[10];
+            int n = 0;
+            while ((v & ~0x7FL) != 0) { out[n++] = (byte) (v & 0x7F | 0x80); v >>>= 7; }
+            out[n++] = (byte) v;
+            return Arrays.copyOf(out, n);
+        }
+
+        private void write(ByteBuffer b) {
+            try {
+                while (b.hasRemaining()) channel.write(b);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // hands already framed (varint length + body), e.g. by the text importer
+        void appendFramed(byte[] data, int len, long hands) {
+            if (buf.remaining() < len) flush();
+            if (buf.capacity() < len) write(ByteBuffer.wrap(data, 0, len));
+            else buf.put(data, 0, len);
+            handNo += hands;
+        }
+
+        void flush() { buf.flip(); write(buf); buf.clear(); }
+
+        long hands() { return handNo; }
+
+        @Override public void close() throws IOException { flush(); channel.close(); }
+    }
+
+    /* Memory-mapped reader. Files larger than one mapping are walked window by window, each
+       window starting on a hand boundary; nothing is decoded into Card or Player objects. */
+    static final class Reader {
+        static final long WINDOW = 1L << 30;
+        private final Path file;
+
+        Reader(Path file) { this.file = file; }
+
+        long replay(Visitor visitor) throws IOException {
+            long hands = 0;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = ch.size();
+                MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER));
+                if (size < HEADER || head.getInt(0) != MAGIC || head.getInt(4) != VERSION)
+                    throw new IOException(file + " is not a hand history file");
+                long base = HEADER;
+                while (base < size) {
+                    MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+                    int limit = m.limit(), pos = 0;
+                    while (pos < limit) {
+                        int start = pos;
+                        long handLen = 0;
+                        int shift = 0;
+                        while (pos < limit) {
+                            int x = m.get(pos++);
+                            handLen |= (long) (x & 0x7F) << shift;
+                            shift += 7;
+                            if (x >= 0) { shift = -1; break; }
+                        }
+                        if (shift != -1 || pos + handLen > limit) { // hand runs past this window
+                            if (start == 0) throw new IOException("truncated hand at offset " + base);
+                            pos = start;
+                            break;
+                        }
+                        hand(m, pos, visitor);
+                        pos += (int) handLen;
+                        hands++;
+                    }
+                    base += pos;
+                }
+            }
+            return hands;
+        }
+
+        private int at;
+
+        private int u8(ByteBuffer m) { return m.get(at++) & 0xFF; }
+        private long v(ByteBuffer m) {
+            long r = 0;
+            for (int shift = 0; ; shift += 7) {
+                int x = m.get(at++);
+                r |= (long) (x & 0x7F) << shift;
+                if (x >= 0) return r;
+            }
+        }
+
+        private void hand(ByteBuffer m, int pos, Visitor vis) {
+            at = pos;
+            long handNo = v(m);
+            int seats = (int) v(m), dealer = (int) v(m), sb = (int) v(m), bb = (int) v(m);
+            if (!vis.hand(handNo, seats, dealer, sb, bb)) return;
+            for (int s=0;s<seats;s++) {
+                int id = (int) v(m), stack = (int) v(m);
+                int c1 = u8(m), c2 = u8(m);
+                vis.seat(s, id, stack, c1, c2);
+            }
+            for (;;) {
+                switch (u8(m)) {
+                    case H_ACTION -> { int x = u8(m); vis.action(x & 0xF, x >>> 4, (int) v(m)); }
+                    case H_BOARD -> {
+                        int street = u8(m), n = u8(m);
+                        long cards = 0;
+                        for (int i=0;i<n;i++) cards |= 1L << u8(m);
+                        vis.board(street, cards);
+                    }
+                    case H_PAYOUT -> { int seat = u8(m); vis.payout(seat, (int) v(m)); }
+                    default -> { vis.endHand(); return; }
+                }
+            }
+        }
+    }
+
+    /* java Poker history FILE [--dump N]
+       Scans a hand-history file and prints totals; --dump prints the first N hands. */
+    static void main(String[] args) throws IOException {
+        if (args.length == 0) throw new IllegalArgumentException("usage: history FILE [--dump N]");
+        Path file = Path.of(args[0]);
+        int dump = 0;
+        for (int i=1;i<args.length;i++) {
+            if (args[i].equals("--dump")) dump = Integer.parseInt(args[++i]);
+            else throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+        final int toDump = dump;
+        long[] actions = new long[5];
+        long[] totals = new long[3]; // rivers seen, chips paid out, seats
+        long start = System.nanoTime();
+        long hands = new Reader(file).replay(new Visitor() {
+            long hand;
+            boolean print;
+            @Override public boolean hand(long handNo, int seats, int dealer, int sb, int bb) {
+                hand = handNo;
+                totals[2] += seats;
+                print = hand < toDump;
+                if (print) System.out.printf("#%d  %d seats, dealer %d, blinds %d/%d%n", handNo, seats, dealer, sb, bb);
+                return true;
+            }
+            @Override public void seat(int seat, int playerId, int stack, int card1, int card2) {
+                if (print) System.out.printf("  seat %d  player %d  stack %d  %s %s%n", seat, playerId, stack,
+                        card1 == NO_CARD ? "??" : Card.of(card1), card2 == NO_CARD ? "??" : Card.of(card2));
+            }
+            @Override public void action(int seat, int type, int amount) {
+                if (type >= 0 && type < actions.length) actions[type]++;
+                if (print) System.out.printf("  seat %d %s %d%n", seat, Action.name(type), amount);
+            }
+            @Override public void board(int street, long cards) {
+                if (street == 3) totals[0]++;
+                if (print) System.out.println("  board +" + CardSet.toString(cards));
+            }
+            @Override public void payout(int seat, int amount) {
+                totals[1] += amount;
+                if (print) System.out.printf("  seat %d wins %d%n", seat, amount);
+            }
+        });
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d hands (%,d bytes) scanned in %.2f s: %,.0f hands/sec%n", hands, Files.size(file), secs, hands / secs);
+        if (hands == 0) return;
+        System.out.printf("%.2f seats/hand, %.1f%% reach the river, %.1f chips paid/hand%n",
+                totals[2] / (double) hands, totals[0] * 100.0 / hands, totals[1] / (double) hands);
+        for (int a=0;a<actions.length;a++) System.out.printf("  %-7s %,d%n", Action.name(a), actions[a]);
+    }
+}
+
+/* ===== Text hand-history import =====
+   java Poker import <in.txt> <out.phh> [--threads N] [--chunk MB]
+   Converts PokerStars-style text histories (Hold'em, cash or tournament) into the binary hand
+   history, appending to OUT. The input is memory-mapped a window at a time and never read
+   whole; each window is cut at hand boundaries (a line starting "PokerStars ") into chunks
+   that parse in parallel into framed binary hands, and finished chunks are appended in file
+   order with at most a few per thread in flight.
+   Amounts are cents when the blinds carry a currency sign and chips otherwise; antes are
+   dropped (the binary format has no ante). Player ids are handed out on first sight and
+   listed, with the names, in OUT.names, which a later import into the same file reuses.
+   Hands that aren't Hold'em, seat more than 16 or don't parse are counted and skipped. */
+final class TextHistoryImport {
+    static final long WINDOW = 1L << 30;
+    static final int MAX_SEATS = 16;
+
+    private final Map<String,Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // one chunk's hands, framed exactly as in the file
+    static final class Chunk {
+        byte[] data = new byte[1 << 16];
+        int len;
+        long hands, skipped;
+    }
 
-        // Showdown / award pot
-        List<Player> contenders = players.stream().filter(p->!p.folded).collect(Collectors.toList());
-        if (contenders.size() == 1) {
-            Player winner = contenders.get(0);
-            winner.chips += pot;
-            System.out.println("\nAll others folded. " + winner.name + " wins the pot of " + pot + " chips.");
-        } else {
-            // evaluate hands
-            System.out.println("\n--- Showdown ---");
-            long bestScore = Long.MIN_VALUE;
-            List<Player> winners = new ArrayList<>();
-            for (Player p : contenders) {
-                List<Card> seven = new ArrayList<>(board);
-                seven.addAll(p.hole);
-                HandValue hv = HandEvaluator.evaluate(seven);
-                System.out.println(p.name + (p.isHuman ? " (you): " : ": ") + p.hole.get(0) + " " + p.hole.get(1) + " => " + hv.pretty());
-                if (hv.score > bestScore) { bestScore = hv.score; winners.clear(); winners.add(p); }
-                else if (hv.score == bestScore) winners.add(p);
-            }
-            int share = pot / winners.size();
-            for (Player w : winners) w.chips += share;
-            System.out.print("Winner(s): ");
-            System.out.println(winners.stream().map(p->p.name).collect(Collectors.joining(", ")) + " split pot ("+share+" each).");
-        }
-        // show stacks
-        System.out.println("\nStacks:");
-        for (Player p : players) System.out.println(" - " + p);
+    static void main(String[] args) throws IOException {
+        if (args.length < 2) throw new IllegalArgumentException("usage: import <in.txt> <out.phh> [--threads N] [--chunk MB]");
+        int threads = Runtime.getRuntime().availableProcessors(), chunkMB = 4;
+        for (int i=2;i<args.length;i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--chunk" -> chunkMB = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        new TextHistoryImport().run(Path.of(args[0]), Path.of(args[1]), threads, chunkMB << 20);
     }
 
-    boolean moreThanOneActive() {
-        return players.stream().filter(p->!p.folded && p.chips>0).count() > 1;
+    void run(Path in, Path out, int threads, int chunkBytes) throws IOException {
+        Path names = Path.of(out + ".names");
+        if (Files.exists(names)) {
+            for (String line : Files.readAllLines(names)) {
+                int tab = line.indexOf('\t');
+                int id = Integer.parseInt(line.substring(0, tab));
+                ids.put(line.substring(tab + 1), id);
+                nextId.set(Math.max(nextId.get(), id + 1));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+        long hands = 0, skipped = 0, start = System.nanoTime(), size;
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ);
+             HandHistory.Writer writer = new HandHistory.Writer(out)) {
+            size = ch.size();
+            long base = 0;
+            while (base < size) {
+                long windowLen = Math.min(WINDOW, size - base);
+                boolean last = base + windowLen == size;
+                MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, base, windowLen);
+                int limit = m.limit(), pos = 0;
+                while (pos < limit) {
+                    int end = pos + chunkBytes >= limit ? limit : nextHand(m, pos + chunkBytes, limit);
+                    if (end == limit && !last) { // the rest may be a partial hand: take it up with the next window
+                        end = lastHand(m, pos, limit);
+                        if (end <= pos) {
+                            if (pos == 0) throw new IOException("hand at offset " + base + " is longer than a window");
+                            break;
+                        }
+                    }
+                    final int from = pos, to = end;
+                    final boolean fileStart = base + from == 0;
+                    inFlight.add(pool.submit(() -> new Parser(m, from, to, ids, nextId).chunk(fileStart)));
+                    pos = end;
+                    while (inFlight.size() > 2 * threads) {
+                        Chunk c = inFlight.poll().join();
+                        writer.appendFramed(c.data, c.len, c.hands);
+                        hands += c.hands; skipped += c.skipped;
+                    }
+                }
+                while (!inFlight.isEmpty()) { // the window's chunks must finish before it is unmapped
+                    Chunk c = inFlight.poll().join();
+                    writer.appendFramed(c.data, c.len, c.hands);
+                    hands += c.hands; skipped += c.skipped;
+                }
+                base += pos;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        List<String> lines = new ArrayList<>();
+        ids.entrySet().stream().sorted(Map.Entry.comparingByValue()).forEach(e -> lines.add(e.getValue() + "\t" + e.getKey()));
+        Files.write(names, lines);
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d hands (%,d skipped) from %,.1f MB in %.2f s on %d thread(s): %,.1f MB/s, %,.0f hands/sec, %,d players%n",
+                hands, skipped, size / 1e6, secs, threads, size / 1e6 / secs, hands / secs, ids.size());
     }
 
-    void runBettingRound(int startingIndex) {
-        // Simple betting loop: each player gets a chance until everyone has called / folded
-        int numPlayers = players.size();
-        int lastToAct = (startingIndex + numPlayers -1) % numPlayers;
-        int idx = startingIndex;
-        boolean bettingOngoing = true;
-        int currentMaxBet = players.stream().mapToInt(p->p.currentBet).max().orElse(0);
-
-        // If everyone has same currentBet and we've looped a full round, finish
-        int checksInRow = 0;
-        Set<Player> acted = new HashSet<>();
-        int activeCount = (int)players.stream().filter(p->p.chips>0 && !p.folded).count();
-
-        while (bettingOngoing) {
-            Player p = players.get(idx);
-            if (!p.folded && p.chips>0) {
-                if (p.isHuman) {
-                    humanAction(p, currentMaxBet);
+    private static final byte[] HAND = ascii("PokerStars ");
+
+    static byte[] ascii(String s) { return s.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1); }
+
+    static boolean at(ByteBuffer m, int p, int limit, byte[] s) {
+        if (p + s.length > limit) return false;
+        for (int i=0;i<s.length;i++) if (m.get(p + i) != s[i]) return false;
+        return true;
+    }
+
+    // start of the first hand at or after from (limit if none)
+    static int nextHand(ByteBuffer m, int from, int limit) {
+        for (int i = Math.max(from, 1); i < limit; i++) {
+            if (m.get(i - 1) == '\n' && at(m, i, limit, HAND)) return i;
+        }
+        return limit;
+    }
+
+    // start of the last hand in [from, limit), or from if there is only one
+    static int lastHand(ByteBuffer m, int from, int limit) {
+        for (int i = limit - 1; i > from; i--) {
+            if (m.get(i - 1) == '\n' && at(m, i, limit, HAND)) return i;
+        }
+        return from;
+    }
+
+    /* Parses the hands of one chunk. The chunk is copied out of the mapping first (on the
+       worker), since plain array reads are much cheaper than the mapped buffer's checked
+       gets. Names are compared as bytes against the hand's seats; a String is only made when
+       the hand is encoded. */
+    static final class Parser {
+        private static final byte[] HAND_NO = ascii("Hand #"), HOLDEM = ascii("Hold'em"), TABLE = ascii("Table '"),
+                BUTTON = ascii("Seat #"), SEAT = ascii("Seat "), IN_CHIPS = ascii(" in chips"), STARS = ascii("*** "),
+                HOLE = ascii("*** HOLE CARDS ***"), FLOP = ascii("*** FLOP ***"), TURN = ascii("*** TURN ***"),
+                RIVER = ascii("*** RIVER ***"), SUMMARY = ascii("*** SUMMARY ***"), DEALT = ascii("Dealt to "),
+                UNCALLED = ascii("Uncalled bet ("), RETURNED = ascii(" returned to "), COLLECTED = ascii(" collected "),
+                FOLDS = ascii("folds"), CHECKS = ascii("checks"), CALLS = ascii("calls "), BETS = ascii("bets "),
+                RAISES = ascii("raises "), TO = ascii(" to "), ALL_IN = ascii("all-in"), POSTS = ascii("posts "),
+                ANTE = ascii("posts the ante"), SMALL_BLIND = ascii("posts small blind "), SHOWS = ascii("shows [");
+
+        private final byte[] b; // the chunk, copied out of the mapping
+        private final Map<String,Integer> ids;
+        private final AtomicInteger nextId;
+        private final Chunk out = new Chunk();
+        // the hand being parsed
+        private int seats, button, smallBlindSeat, street;
+        private boolean cents;
+        private long handNo, sb, bb;
+        private final int[] siteSeat = new int[MAX_SEATS], nameAt = new int[MAX_SEATS], nameLen = new int[MAX_SEATS];
+        private final long[] stack = new long[MAX_SEATS], streetBet = new long[MAX_SEATS];
+        private final int[] card1 = new int[MAX_SEATS], card2 = new int[MAX_SEATS];
+        private byte[] rec = new byte[256], hand = new byte[256];
+        private int recLen, handLen;
+        private int amountEnd;
+
+        Parser(ByteBuffer m, int from, int to, Map<String,Integer> ids, AtomicInteger nextId) {
+            b = new byte[to - from];
+            m.get(from, b);
+            this.ids = ids;
+            this.nextId = nextId;
+        }
+
+        Chunk chunk(boolean fileStart) {
+            int h = 0, to = b.length;
+            if (fileStart && to >= 3 && b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) h = 3; // UTF-8 BOM
+            while (h < to && !at(h, to, HAND)) h = nextHand(h + 1, to);
+            while (h < to) {
+                int next = nextHand(h + 1, to);
+                if (hand(h, next)) out.hands++; else out.skipped++;
+                h = next;
+            }
+            return out;
+        }
+
+        private boolean hand(int from, int to) {
+            seats = 0; button = smallBlindSeat = -1; street = 0; recLen = 0; sb = bb = 0;
+            int eol = lineEnd(from, to);
+            if (!header(from, eol)) return false;
+            boolean dealing = false;
+            for (int ls = next(eol, to); ls < to; ls = next(eol, to)) {
+                eol = lineEnd(ls, to);
+                if (at(ls, eol, STARS)) {
+                    if (at(ls, eol, HOLE)) dealing = true;
+                    else if (at(ls, eol, FLOP)) board(1, ls, eol);
+                    else if (at(ls, eol, TURN)) board(2, ls, eol);
+                    else if (at(ls, eol, RIVER)) board(3, ls, eol);
+                    else if (at(ls, eol, SUMMARY)) break;
+                } else if (at(ls, eol, TABLE)) {
+                    int b = find(ls, eol, BUTTON);
+                    if (b >= 0) button = (int) number(b + BUTTON.length, eol);
+                } else if (!dealing && street == 0 && at(ls, eol, SEAT)) {
+                    if (!seat(ls, eol)) return false;
+                } else if (at(ls, eol, DEALT)) {
+                    int s = seatNamed(ls + DEALT.length, eol, (byte) ' ');
+                    if (s >= 0) cards(s, ls + DEALT.length + nameLen[s] + 1, eol);
+                } else if (at(ls, eol, UNCALLED)) {
+                    long amount = amount(ls + UNCALLED.length, eol);
+                    int r = find(amountEnd, eol, RETURNED);
+                    int s = r < 0 ? -1 : seatNamed(r + RETURNED.length, eol, (byte) '\n');
+                    if (s >= 0) payout(s, amount);
                 } else {
-                    aiAction(p, currentMaxBet);
+                    actionLine(ls, eol);
                 }
-                currentMaxBet = players.stream().mapToInt(pl->pl.currentBet).max().orElse(0);
             }
-            // detect if betting round over: all players either folded or have currentBet == currentMaxBet or are all-in
-            boolean allSettled = true;
-            int activeStill = 0;
-            for (Player pl : players) {
-                if (pl.folded) continue;
-                if (pl.chips == 0) continue; // all-in - considered settled
-                activeStill++;
-                if (pl.currentBet != currentMaxBet) { allSettled = false; break; }
+            if (seats == 0) return false;
+            return encode();
+        }
+
+        // "PokerStars Hand #123: Hold'em No Limit ($0.01/$0.02 USD) - ..." or a tournament's "... Level I (10/20) - ..."
+        private boolean header(int ls, int eol) {
+            int h = find(ls, eol, HAND_NO);
+            if (h < 0 || find(ls, eol, HOLDEM) < 0) return false;
+            handNo = number(h + HAND_NO.length, eol);
+            for (int p = find(h, eol, (byte) '('); p >= 0; p = find(p + 1, eol, (byte) '(')) {
+                int slash = find(p, eol, (byte) '/'), close = find(p, eol, (byte) ')');
+                if (slash < 0 || close < 0 || slash > close || !digitAhead(p + 1, slash) || !digitAhead(slash + 1, close)) continue;
+                cents = false;
+                for (int i = p + 1; i < slash; i++) if (b[i] < 0 || b[i] == '$') cents = true; // $, or a UTF-8 sign
+                sb = amount(p + 1, slash);
+                bb = amount(slash + 1, close);
+                return true;
             }
-            if (allSettled) break;
-            idx = (idx+1) % numPlayers;
-            // if idx cycles enough, keep going until all settled
+            return false;
         }
-        // collect bets to pot and reset currentBet
-        for (Player p : players) {
-            pot += p.currentBet;
-            p.currentBet = 0;
+
+        // "Seat 3: name (1500 in chips)" with maybe " is sitting out" after it
+        private boolean seat(int ls, int eol) {
+            int colon = find(ls, eol, (byte) ':'), chips = find(ls, eol, IN_CHIPS);
+            if (colon < 0 || chips < 0) return true; // not a seat line after all
+            int open = chips;
+            while (open > colon && b[open] != '(') open--;
+            if (open <= colon + 2 || b[open - 1] != ' ') return true;
+            if (seats == MAX_SEATS) return false;
+            int s = seats++;
+            siteSeat[s] = (int) number(ls + SEAT.length, colon);
+            nameAt[s] = colon + 2;
+            nameLen[s] = open - 1 - nameAt[s];
+            stack[s] = amount(open + 1, chips);
+            streetBet[s] = 0;
+            card1[s] = card2[s] = HandHistory.NO_CARD;
+            return true;
         }
-        System.out.println("Pot is now: " + pot);
-    }
-
-    void humanAction(Player p, int currentMaxBet) {
-        if (p.folded || p.chips <= 0) return;
-        System.out.println("\nYour turn. Board: " + boardToString());
-        System.out.println("Your cards: " + p.hole.get(0) + " " + p.hole.get(1));
-        System.out.println("Pot: " + pot + " | Your stack: " + p.chips + " | To call: " + (currentMaxBet - p.currentBet));
-        boolean canCheck = currentMaxBet == p.currentBet;
-        System.out.print("Choose action - ");
-        if (canCheck) System.out.print("[c]heck ");
-        else System.out.print("[c]all ");
-        System.out.print("[r]aise [f]old: ");
-        String in = sc.nextLine().trim().toLowerCase();
-        if (in.equals("q")) { System.exit(0); }
-        if (in.equals("f")) {
-            p.folded = true;
-            System.out.println(p.name + " folds.");
+
+        private void actionLine(int ls, int eol) {
+            int s = seatNamed(ls, eol, (byte) ':');
+            if (s >= 0) {
+                int v = ls + nameLen[s] + 2;
+                if (at(v, eol, FOLDS)) action(s, Action.FOLD, 0);
+                else if (at(v, eol, CHECKS)) action(s, Action.CHECK, 0);
+                else if (at(v, eol, CALLS)) {
+                    long x = amount(v + CALLS.length, eol);
+                    streetBet[s] += x;
+                    action(s, allIn(eol) ? Action.ALL_IN : Action.CALL, x);
+                } else if (at(v, eol, BETS)) {
+                    long x = amount(v + BETS.length, eol);
+                    streetBet[s] += x;
+                    action(s, allIn(eol) ? Action.ALL_IN : Action.RAISE, x);
+                } else if (at(v, eol, RAISES)) {
+                    int to = find(v, eol, TO);
+                    if (to < 0) return;
+                    long total = amount(to + TO.length, eol), put = total - streetBet[s];
+                    streetBet[s] = total;
+                    action(s, allIn(eol) ? Action.ALL_IN : Action.RAISE, put);
+                } else if (at(v, eol, POSTS) && !at(v, eol, ANTE)) {
+                    streetBet[s] += amount(v + POSTS.length, eol); // blinds: the header has the amounts, this is for later raises
+                    if (smallBlindSeat < 0 && at(v, eol, SMALL_BLIND)) smallBlindSeat = s;
+                } else if (at(v, eol, SHOWS)) {
+                    cards(s, v + SHOWS.length - 1, eol);
+                }
+                return;
+            }
+            s = seatNamed(ls, eol, (byte) ' ');
+            if (s >= 0 && at(ls + nameLen[s], eol, COLLECTED)) payout(s, amount(ls + nameLen[s] + COLLECTED.length, eol));
+        }
+
+        private boolean allIn(int eol) { return find(Math.max(0, eol - 16), eol, ALL_IN) >= 0; }
+
+        // "[Ah Kd]"
+        private void cards(int s, int p, int eol) {
+            int open = find(p, eol, (byte) '[');
+            if (open < 0 || open + 5 >= eol) return;
+            card1[s] = card(open + 1);
+            card2[s] = card(open + 4);
+        }
+
+        // "*** TURN *** [2c 7d Th] [Js]": the cards in the last bracket are the new ones
+        private void board(int street, int ls, int eol) {
+            this.street = street;
+            Arrays.fill(streetBet, 0, seats, 0);
+            int open = eol - 1;
+            while (open > ls && b[open] != '[') open--;
+            int count = 0, start = recLen;
+            r(HandHistory.H_BOARD); r(street); r(0);
+            for (int p = open + 1; p + 1 < eol && b[p] != ']'; p += 3) {
+                int c = card(p);
+                if (c == HandHistory.NO_CARD) break;
+                r(c);
+                count++;
+            }
+            rec[start + 2] = (byte) count;
+        }
+
+        private void action(int seat, int type, long amount) { r(HandHistory.H_ACTION); r(type << 4 | seat); rv(amount); }
+        private void payout(int seat, long amount) { r(HandHistory.H_PAYOUT); r(seat); rv(amount); }
+
+        // header and seats go in front of the records now that the hole cards are known
+        private boolean encode() {
+            // readers take the blinds to be the two seats after the dealer, as PokerGame posts them,
+            // so the dealer recorded is the seat before the small blind (heads-up that's the big blind)
+            int dealer = 0;
+            for (int s=0;s<seats;s++) if (siteSeat[s] == button) dealer = s;
+            if (smallBlindSeat >= 0) dealer = (smallBlindSeat + seats - 1) % seats;
+            handLen = 0;
+            hv(handNo); hv(seats); hv(dealer); hv(sb); hv(bb);
+            for (int s=0;s<seats;s++) {
+                hv(id(s)); hv(stack[s]); h(card1[s]); h(card2[s]);
+            }
+            for (int i=0;i<recLen;i++) h(rec[i]);
+            h(HandHistory.H_END);
+            long len = handLen;
+            while ((len & ~0x7FL) != 0) { o((int) (len & 0x7F) | 0x80); len >>>= 7; }
+            o((int) len);
+            if (out.data.length - out.len < handLen) out.data = Arrays.copyOf(out.data, Math.max(out.data.length * 2, out.len + handLen));
+            System.arraycopy(hand, 0, out.data, out.len, handLen);
+            out.len += handLen;
+            return true;
+        }
+
+        private int id(int s) {
+            byte[] name = new byte[nameLen[s]];
+            for (int i=0;i<name.length;i++) name[i] = b[nameAt[s] + i];
+            return ids.computeIfAbsent(new String(name, java.nio.charset.StandardCharsets.UTF_8), k -> nextId.getAndIncrement());
+        }
+
+        // the seat whose name starts at p and is followed by the terminator ('\n' = end of line)
+        private int seatNamed(int p, int eol, byte terminator) {
+            for (int s=0;s<seats;s++) {
+                int n = nameLen[s], end = p + n;
+                if (end > eol || (terminator == '\n' ? end != eol : end >= eol || b[end] != terminator)) continue;
+                int i = 0;
+                while (i < n && b[p + i] == b[nameAt[s] + i]) i++;
+                if (i == n) return s;
+            }
+            return -1;
+        }
+
+        // "Ah" -> Card index, NO_CARD if it isn't a card
+        private int card(int p) {
+            int rank = switch (b[p]) {
+                case 'A' -> 14; case 'K' -> 13; case 'Q' -> 12; case 'J' -> 11; case 'T' -> 10;
+                default -> b[p] >= '2' && b[p] <= '9' ? b[p] - '0' : 0;
+            };
+            int suit = switch (b[p + 1]) { case 'c' -> 0; case 'd' -> 1; case 'h' -> 2; case 's' -> 3; default -> -1; };
+            return rank == 0 || suit < 0 ? HandHistory.NO_CARD : suit * 13 + rank - 2;
+        }
+
+        // "$1,234.5" or "1500": skips a leading currency sign; cents when the hand's blinds had one
+        private long amount(int p, int eol) {
+            while (p < eol && (b[p] < '0' || b[p] > '9')) p++;
+            long whole = 0, frac = 0;
+            int fracDigits = 0;
+            boolean point = false;
+            for (; p < eol; p++) {
+                byte c = b[p];
+                if (c >= '0' && c <= '9') {
+                    if (!point) whole = whole * 10 + (c - '0');
+                    else if (fracDigits < 2) { frac = frac * 10 + (c - '0'); fracDigits++; }
+                } else if (c == '.' && !point && p + 1 < eol && b[p + 1] >= '0' && b[p + 1] <= '9') point = true;
+                else if (c != ',') break;
+            }
+            amountEnd = p;
+            if (!cents) return whole;
+            if (fracDigits == 1) frac *= 10;
+            return whole * 100 + frac;
+        }
+
+        private long number(int p, int eol) {
+            long v = 0;
+            for (; p < eol && b[p] >= '0' && b[p] <= '9'; p++) v = v * 10 + (b[p] - '0');
+            return v;
+        }
+
+        private boolean digitAhead(int p, int end) {
+            for (; p < end; p++) if (b[p] >= '0' && b[p] <= '9') return true;
+            return false;
+        }
+
+        private int lineEnd(int p, int to) {
+            int e = find(p, to, (byte) '\n');
+            if (e < 0) e = to;
+            return e > p && b[e - 1] == '\r' ? e - 1 : e;
+        }
+
+        private int next(int eol, int to) {
+            while (eol < to && b[eol] != '\n') eol++;
+            return eol + 1;
+        }
+
+        private int nextHand(int from, int to) {
+            for (int i = from; i < to; i++) if (b[i - 1] == '\n' && at(i, to, HAND)) return i;
+            return to;
+        }
+
+        private boolean at(int p, int limit, byte[] s) {
+            if (p + s.length > limit) return false;
+            for (int i=0;i<s.length;i++) if (b[p + i] != s[i]) return false;
+            return true;
+        }
+
+        private int find(int from, int to, byte[] s) {
+            for (int p = from; p + s.length <= to; p++) if (b[p] == s[0] && at(p, to, s)) return p;
+            return -1;
+        }
+
+        private int find(int from, int to, byte c) {
+            for (int p = from; p < to; p++) if (b[p] == c) return p;
+            return -1;
+        }
+
+        private void r(int b) {
+            if (recLen == rec.length) rec = Arrays.copyOf(rec, recLen * 2);
+            rec[recLen++] = (byte) b;
+        }
+        private void rv(long v) {
+            while ((v & ~0x7FL) != 0) { r((int) (v & 0x7F) | 0x80); v >>>= 7; }
+            r((int) v);
+        }
+        private void h(int b) {
+            if (handLen == hand.length) hand = Arrays.copyOf(hand, handLen * 2);
+            hand[handLen++] = (byte) b;
+        }
+        private void hv(long v) {
+            while ((v & ~0x7FL) != 0) { h((int) (v & 0x7F) | 0x80); v >>>= 7; }
+            h((int) v);
+        }
+        private void o(int b) {
+            if (out.data.length == out.len) out.data = Arrays.copyOf(out.data, out.len * 2);
+            out.data[out.len++] = (byte) b;
+        }
+    }
+}
+
+/* ===== Columnar hand store =====
+   java Poker store build <history> <store>
+   java Poker store query <store> [--player P] [--category C] [--showdown] [--won | --lost] [--list N]
+   java Poker store report <store>
+   One row per seat per hand of a binary hand history, kept column by column in a single
+   memory-mapped file: hand number, player id, pot, net result, hole cards, seat, final
+   category (score >> 40 over hole + full board, 0 when either isn't known) and flags. Behind
+   the columns are a bitmap index per category and, per player id, the sorted list of that
+   player's rows (a bitmap each would grow with players x rows), so a query ANDs a few bitmaps
+   and then touches only the rows left. Queries are primitive loops over the mapped columns;
+   nothing is materialized per row.
+   Player ids are the history's: seats for 'sim --log' (AI_1 = 0), names from the importer's
+   .names file, which build copies next to the store. */
+final class HandStore implements AutoCloseable {
+    static final int MAGIC = 0x50484331; // "PHC1"
+    static final int VERSION = 2;
+    static final int HEADER = 64;
+    static final int CATEGORIES = 10;       // 0 = not known, then 1 (high card) .. 9 (straight flush)
+    static final int F_SHOWDOWN = 1;        // still in when the hand ended with more than one player
+    // column widths in bytes, in file order: hand, player, pot, result, hole, seat, category, flags
+    private static final int[] WIDTH = { 8, 4, 4, 4, 2, 1, 1, 1 };
+
+    final int rows, players, words;
+    private final FileChannel channel;
+    private final LongBuffer hand;
+    private final IntBuffer player, pot, result;
+    private final ShortBuffer hole;
+    private final ByteBuffer seat, category, flags;
+    private final LongBuffer index;         // category bitmaps, words longs each
+    private final IntBuffer playerStart;    // player id -> first entry in playerRows; players + 1 entries
+    private final IntBuffer playerRows;     // every player's rows, ascending, one player after another
+    final Map<String,Integer> names = new HashMap<>();
+
+    private HandStore(FileChannel channel, int rows, int players, boolean write) throws IOException {
+        this.channel = channel;
+        this.rows = rows;
+        this.players = players;
+        this.words = (rows + 63) >>> 6;
+        FileChannel.MapMode mode = write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        ByteBuffer[] col = new ByteBuffer[WIDTH.length];
+        long at = HEADER;
+        for (int c=0;c<WIDTH.length;c++) {
+            long bytes = (long) rows * WIDTH[c];
+            col[c] = channel.map(mode, at, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            at = align(at + bytes);
+        }
+        hand = col[0].asLongBuffer(); player = col[1].asIntBuffer(); pot = col[2].asIntBuffer(); result = col[3].asIntBuffer();
+        hole = col[4].asShortBuffer(); seat = col[5]; category = col[6]; flags = col[7];
+        index = channel.map(mode, at, (long) CATEGORIES * words * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        at = align(at + (long) CATEGORIES * words * 8);
+        playerStart = channel.map(mode, at, (players + 1L) * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        at = align(at + (players + 1L) * 4);
+        playerRows = channel.map(mode, at, (long) rows * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private static long align(long at) { return (at + 7) & ~7L; }
+
+    private static long size(int rows, int players) {
+        long at = HEADER;
+        for (int w : WIDTH) at = align(at + (long) rows * w);
+        at = align(at + (long) CATEGORIES * ((rows + 63) >>> 6) * 8);
+        return align(at + (players + 1L) * 4) + (long) rows * 4;
+    }
+
+    static HandStore open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION) { ch.close(); throw new IOException(file + " is not a hand store"); }
+        HandStore s = new HandStore(ch, h.getInt(8), h.getInt(12), false);
+        Path names = Path.of(file + ".names");
+        if (Files.exists(names)) {
+            for (String line : Files.readAllLines(names)) {
+                int tab = line.indexOf('\t');
+                s.names.put(line.substring(tab + 1), Integer.parseInt(line.substring(0, tab)));
+            }
+        }
+        return s;
+    }
+
+    /* Two passes over the history: one counts rows per player id so the file can be sized
+       and mapped once, the next fills the columns, bitmaps and row lists in place. */
+    static void build(Path history, Path file) throws IOException {
+        long start = System.nanoTime();
+        long[] count = new long[2]; // rows, highest player id
+        int[][] perPlayer = { new int[64] };
+        new HandHistory.Reader(history).replay(new HandHistory.Visitor() {
+            @Override public boolean hand(long handNo, int seats, int dealer, int sb, int bb) { count[0] += seats; return true; }
+            @Override public void seat(int seat, int playerId, int stack, int card1, int card2) {
+                count[1] = Math.max(count[1], playerId);
+                if (playerId >= perPlayer[0].length) perPlayer[0] = Arrays.copyOf(perPlayer[0], Math.max(playerId + 1, 2 * perPlayer[0].length));
+                perPlayer[0][playerId]++;
+            }
+        });
+        if (count[0] > Integer.MAX_VALUE - 64) throw new IOException(count[0] + " rows is more than one store holds");
+        int rows = (int) count[0], players = (int) count[1] + 1;
+        Files.deleteIfExists(file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[1]), size(rows, players) - 1); // sized (sparsely) up front
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(players).flip();
+            ch.write(h, 0);
+            HandStore s = new HandStore(ch, rows, players, true);
+            int[] next = new int[players];
+            for (int p=0, at=0; p<=players; p++) {
+                s.playerStart.put(p, at);
+                if (p < players) { next[p] = at; at += perPlayer[0][p]; }
+            }
+            new HandHistory.Reader(history).replay(s.new Loader(next));
+        }
+        Path names = Path.of(history + ".names");
+        if (Files.exists(names)) Files.copy(names, Path.of(file + ".names"), StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf("%,d rows, %d player ids, %,d bytes in %.2f s%n", rows, players, Files.size(file), (System.nanoTime() - start) / 1e9);
+    }
+
+    // fills one hand's rows when it ends; the blinds are the two seats after the dealer
+    private final class Loader implements HandHistory.Visitor {
+        private final int[] next; // player id -> next free entry in playerRows
+        private int row, seats;
+        private long handNo, board;
+        private final int[] id = new int[16], put = new int[16], won = new int[16];
+        private final long[] cards = new long[16];
+        private final boolean[] folded = new boolean[16];
+
+        Loader(int[] next) { this.next = next; }
+
+        @Override public boolean hand(long handNo, int seats, int dealer, int sb, int bb) {
+            this.handNo = handNo;
+            this.seats = seats;
+            board = 0;
+            Arrays.fill(put, 0, seats, 0);
+            Arrays.fill(won, 0, seats, 0);
+            Arrays.fill(folded, 0, seats, false);
+            put[(dealer + 1) % seats] += sb;
+            put[(dealer + 2) % seats] += bb;
+            return true;
+        }
+        @Override public void seat(int s, int playerId, int stack, int card1, int card2) {
+            id[s] = playerId;
+            cards[s] = card1 == HandHistory.NO_CARD || card2 == HandHistory.NO_CARD ? 0 : 1L << card1 | 1L << card2;
+        }
+        @Override public void action(int s, int type, int amount) {
+            put[s] += amount;
+            if (type == Action.FOLD) folded[s] = true;
+        }
+        @Override public void board(int street, long c) { board |= c; }
+        @Override public void payout(int s, int amount) { won[s] += amount; }
+        @Override public void endHand() {
+            int total = 0, live = 0;
+            for (int s=0;s<seats;s++) { total += put[s]; if (!folded[s]) live++; }
+            boolean river = CardSet.size(board) == 5;
+            for (int s=0;s<seats;s++, row++) {
+                int cat = river && cards[s] != 0 ? (int) (LookupEvaluator.score(board | cards[s]) >> 40) : 0;
+                hand.put(row, handNo);
+                player.put(row, id[s]);
+                pot.put(row, total);
+                result.put(row, won[s] - put[s]);
+                hole.put(row, (short) (cards[s] == 0 ? 0xFFFF : Long.numberOfTrailingZeros(cards[s]) << 8 | 63 - Long.numberOfLeadingZeros(cards[s])));
+                seat.put(row, (byte) s);
+                category.put(row, (byte) cat);
+                flags.put(row, (byte) (!folded[s] && live > 1 ? F_SHOWDOWN : 0));
+                setBit(cat, row);
+                playerRows.put(next[id[s]]++, row);
+            }
+        }
+        private void setBit(int bitmap, int row) {
+            int w = bitmap * words + (row >>> 6);
+            index.put(w, index.get(w) | 1L << row);
+        }
+    }
+
+    long handNo(int row) { return hand.get(row); }
+    int player(int row) { return player.get(row); }
+    int pot(int row) { return pot.get(row); }
+    int result(int row) { return result.get(row); }
+    int seat(int row) { return seat.get(row); }
+    int category(int row) { return category.get(row); }
+    boolean showdown(int row) { return (flags.get(row) & F_SHOWDOWN) != 0; }
+    // CardSet of the hole cards, 0 if unknown
+    long hole(int row) {
+        int h = hole.get(row) & 0xFFFF;
+        return h == 0xFFFF ? 0 : 1L << (h >>> 8) | 1L << (h & 0xFF);
+    }
+
+    // a name from the .names file, AI_n for a simulated seat, or a number
+    int playerId(String name) {
+        Integer id = names.get(name);
+        if (id != null) return id;
+        try {
+            return name.startsWith("AI_") ? Integer.parseInt(name.substring(3)) - 1 : Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown player " + name);
+        }
+    }
+
+    // a player's row count and net straight from the row list, without a full-width query
+    int rowCount(int id) { return playerStart.get(id + 1) - playerStart.get(id); }
+    long sumResult(int id) {
+        long sum = 0;
+        for (int i=playerStart.get(id), end=playerStart.get(id + 1); i<end; i++) sum += result.get(playerRows.get(i));
+        return sum;
+    }
+
+    Query all() { return new Query(); }
+
+    /* A set of rows as a bitmap; filters narrow it in place. Index filters AND a bitmap word
+       by word, column filters visit only the rows still set. */
+    final class Query {
+        final long[] bits = new long[words];
+
+        Query() {
+            Arrays.fill(bits, -1L);
+            if ((rows & 63) != 0) bits[words - 1] = (1L << rows) - 1;
+        }
+
+        Query player(int id) {
+            long[] keep = new long[words];
+            if (id >= 0 && id < players)
+                for (int i=playerStart.get(id), end=playerStart.get(id + 1); i<end; i++) { int row = playerRows.get(i); keep[row >>> 6] |= 1L << row; }
+            for (int w=0;w<words;w++) bits[w] &= keep[w];
+            return this;
+        }
+        Query category(int c) { return and(c); }
+        Query showdown() {
+            for (int w=0;w<words;w++) for (long m = bits[w]; m != 0; m &= m - 1) {
+                int row = w << 6 | Long.numberOfTrailingZeros(m);
+                if ((flags.get(row) & F_SHOWDOWN) == 0) bits[w] &= ~(m & -m);
+            }
+            return this;
+        }
+        Query won() { return result(1); }
+        Query lost() { return result(-1); }
+
+        // keep rows whose result has this sign
+        private Query result(int sign) {
+            for (int w=0;w<words;w++) for (long m = bits[w]; m != 0; m &= m - 1) {
+                int row = w << 6 | Long.numberOfTrailingZeros(m);
+                if (Integer.signum(result.get(row)) != sign) bits[w] &= ~(m & -m);
+            }
+            return this;
+        }
+
+        private Query and(int bitmap) {
+            int base = bitmap * words;
+            for (int w=0;w<words;w++) bits[w] &= index.get(base + w);
+            return this;
+        }
+
+        int count() {
+            int n = 0;
+            for (long b : bits) n += Long.bitCount(b);
+            return n;
+        }
+
+        long sumResult() {
+            long sum = 0;
+            for (int w=0;w<words;w++) for (long m = bits[w]; m != 0; m &= m - 1) sum += result.get(w << 6 | Long.numberOfTrailingZeros(m));
+            return sum;
+        }
+
+        void forEach(java.util.function.IntConsumer visit) {
+            for (int w=0;w<words;w++) for (long m = bits[w]; m != 0; m &= m - 1) visit.accept(w << 6 | Long.numberOfTrailingZeros(m));
+        }
+
+        // per category: {rows, rows won, net result}
+        long[][] byCategory() {
+            long[][] out = new long[CATEGORIES][3];
+            for (int w=0;w<words;w++) for (long m = bits[w]; m != 0; m &= m - 1) {
+                int row = w << 6 | Long.numberOfTrailingZeros(m), r = result.get(row);
+                long[] c = out[category.get(row)];
+                c[0]++;
+                if (r > 0) c[1]++;
+                c[2] += r;
+            }
+            return out;
+        }
+    }
+
+    @Override public void close() throws IOException { channel.close(); }
+
+    static void main(String[] args) throws IOException {
+        if (args.length < 2) throw new IllegalArgumentException("usage: store build <history> <store> | store query <store> [filters] | store report <store>");
+        switch (args[0]) {
+            case "build" -> build(Path.of(args[1]), Path.of(args[2]));
+            case "query" -> {
+                try (HandStore s = open(Path.of(args[1]))) {
+                    long start = System.nanoTime();
+                    Query q = s.all();
+                    int list = 0;
+                    for (int i=2;i<args.length;i++) {
+                        switch (args[i]) {
+                            case "--player" -> q.player(s.playerId(args[++i]));
+                            case "--category" -> q.category(Integer.parseInt(args[++i]));
+                            case "--showdown" -> q.showdown();
+                            case "--won" -> q.won();
+                            case "--lost" -> q.lost();
+                            case "--list" -> list = Integer.parseInt(args[++i]);
+                            default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                    }
+                    int n = q.count();
+                    long net = q.sumResult();
+                    System.out.printf("%,d of %,d rows, net %,d (%.1f per row) in %.1f ms%n", n, s.rows, net, n == 0 ? 0.0 : net / (double) n,
+                            (System.nanoTime() - start) / 1e6);
+                    int[] left = { list };
+                    q.forEach(row -> {
+                        if (left[0]-- <= 0) return;
+                        System.out.printf("  hand %d seat %d player %d %s %s pot %d result %d%n", s.handNo(row), s.seat(row), s.player(row),
+                                s.hole(row) == 0 ? "??" : CardSet.toString(s.hole(row)), HandValue.categoryName(s.category(row)), s.pot(row), s.result(row));
+                    });
+                }
+            }
+            case "report" -> {
+                try (HandStore s = open(Path.of(args[1]))) {
+                    long start = System.nanoTime();
+                    long[][] byCat = s.all().showdown().byCategory();
+                    System.out.println("Showdowns by category       rows    won%    net/row");
+                    for (int c=CATEGORIES-1;c>=0;c--) {
+                        long[] r = byCat[c];
+                        if (r[0] > 0) System.out.printf("  %-18s %,11d %6.1f%% %10.1f%n", HandValue.categoryName(c), r[0], r[1] * 100.0 / r[0], r[2] / (double) r[0]);
+                    }
+                    System.out.println("Players (most rows)      rows     net    net/row");
+                    Integer[] ids = new Integer[s.players];
+                    for (int p=0;p<s.players;p++) ids[p] = p;
+                    Arrays.sort(ids, (a, b) -> Integer.compare(s.rowCount(b), s.rowCount(a)));
+                    for (int i=0; i<Math.min(10, ids.length) && s.rowCount(ids[i]) > 0; i++) {
+                        int n = s.rowCount(ids[i]);
+                        long net = s.sumResult(ids[i]);
+                        System.out.printf("  %-14d %,11d %,9d %9.2f%n", ids[i], n, net, net / (double) n);
+                    }
+                    System.out.printf("in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown store command " + args[0]);
+        }
+    }
+}
+
+/* ===== Betting round =====
+   State of one street's betting, kept in seat-indexed arrays and bitmasks and updated in O(1)
+   per action: the highest bet, the size of the last full raise, the last aggressor and the set
+   of seats that still have to act. A raise puts every other seat that can act back into the
+   pending set; only a full raise lets the seats that already acted raise again. The round is over when nobody is pending, only one hand is left, or nobody
+   else can respond to the one player who still has chips. Reusable and allocation-free after
+   construction; up to 64 seats. */
+final class BettingRound {
+    private int n;
+    private int[] bet = new int[10], stack = new int[10];
+    private long live;    // seats that haven't folded
+    private long canAct;  // live seats with chips behind
+    private long pending; // seats that still have to act this street
+    private long reopened; // seats that may still raise: not acted since the last full raise
+    private int highBet, minRaise, lastAggressor, cursor;
+
+    // Loads the street from the table; bets already in front of players (blinds) count.
+    void start(List<Player> players, int first, int bigBlind) {
+        n = players.size();
+        if (bet.length < n) { bet = new int[n]; stack = new int[n]; }
+        live = canAct = 0;
+        highBet = 0;
+        for (int s=0;s<n;s++) {
+            Player p = players.get(s);
+            bet[s] = p.currentBet;
+            stack[s] = p.chips;
+            if (p.folded) continue;
+            live |= 1L << s;
+            if (p.chips > 0) canAct |= 1L << s;
+            highBet = Math.max(highBet, p.currentBet);
+        }
+        pending = reopened = canAct;
+        minRaise = bigBlind;
+        lastAggressor = -1;
+        cursor = first % n;
+    }
+
+    // Loads the street as start() does, then puts back a saved betting state (GameState.store).
+    void restore(List<Player> players, long pending, long reopened, int highBet, int minRaise, int lastAggressor, int cursor) {
+        start(players, cursor, minRaise);
+        this.pending = pending & canAct;
+        this.reopened = reopened & canAct;
+        this.highBet = highBet;
+        this.lastAggressor = lastAggressor;
+    }
+
+    // Next seat to act, or -1 when the street is over.
+    int toAct() {
+        if (pending == 0 || Long.bitCount(live) < 2) return -1;
+        if (Long.bitCount(canAct) == 1) { // everyone else is all-in: only a short call is left
+            int s = Long.numberOfTrailingZeros(canAct);
+            if (bet[s] >= highBet) return -1;
+        }
+        long after = pending & (-1L << cursor);
+        return Long.numberOfTrailingZeros(after != 0 ? after : pending);
+    }
+
+    int highBet() { return highBet; }
+    int lastAggressor() { return lastAggressor; }
+    int minRaise() { return minRaise; }
+    long pending() { return pending; }
+    long reopened() { return reopened; }
+    boolean mayRaise(int seat) { return (reopened & (1L << seat)) != 0; }
+    int cursor() { return cursor; }
+    int toCall(int seat) { return Math.min(highBet - bet[seat], stack[seat]); }
+    int minRaiseTo() { return highBet + minRaise; }
+    int maxRaiseTo(int seat) { return bet[seat] + stack[seat]; }
+    int liveCount() { return Long.bitCount(live); }
+    int actorCount() { return Long.bitCount(canAct); }
+
+    // Bitmask of legal Action codes for the seat; after a short all-in, a seat that already
+    // acted may only call or fold
+    int legalActions(int seat) {
+        if ((pending & (1L << seat)) == 0) return 0;
+        int call = highBet - bet[seat], legal = 0;
+        boolean open = mayRaise(seat);
+        if (call > 0) legal |= 1 << Action.FOLD | 1 << Action.CALL;
+        else legal |= 1 << Action.CHECK;
+        if (stack[seat] > 0 && (open || stack[seat] <= call)) legal |= 1 << Action.ALL_IN;
+        if (open && bet[seat] + stack[seat] > minRaiseTo() && Long.bitCount(canAct) > 1) legal |= 1 << Action.RAISE;
+        return legal;
+    }
+
+    /* Records what the seat did; amount is the chips it put in with this action. A seat that
+       is still short of the high bet with chips behind stays pending. A full raise puts every
+       other seat that can act back in and lets them raise; a short all-in only puts back those
+       that haven't matched it, without reopening the raising for seats that already acted. */
+    void apply(int seat, int action, int amount) {
+        long bit = 1L << seat;
+        pending &= ~bit;
+        reopened &= ~bit;
+        cursor = seat + 1 == n ? 0 : seat + 1;
+        if (action == Action.FOLD) { live &= ~bit; canAct &= ~bit; return; }
+        bet[seat] += amount;
+        stack[seat] -= amount;
+        if (stack[seat] <= 0) canAct &= ~bit;
+        if (bet[seat] > highBet) {
+            int raise = bet[seat] - highBet;
+            highBet = bet[seat];
+            if (raise >= minRaise) {
+                minRaise = raise;
+                lastAggressor = seat;
+                pending = reopened = canAct & ~bit;
+            } else {
+                for (long m = canAct & ~bit; m != 0; m &= m - 1) {
+                    int s = Long.numberOfTrailingZeros(m);
+                    if (bet[s] < highBet) pending |= 1L << s;
+                }
+            }
+        } else if (bet[seat] < highBet && (canAct & bit) != 0) {
+            pending |= bit;
+        }
+    }
+}
+
+/* ===== Pots =====
+   Main and side pots built from what every seat put in over the whole hand. What the top live
+   seat put in above every other seat was never called: it goes back as a refund and is in no
+   pot. Each distinct contribution level of a live hand caps one pot, and only live seats that
+   reached that level are eligible for it. Chips a folded player put in above the top level go
+   to the last pot.
+   settle() walks the showdown ranking once, from the best hand down. Each tie group takes
+   every pot it is eligible for that is still unpaid. The odd chips of a split go one at a
+   time to the winners nearest the dealer's left. */
+final class PotLedger {
+    private int[] amount = new int[10];
+    private long[] eligible = new long[10];
+    private int[] caps = new int[10], order = new int[10];
+    private int pots, total;
+    private int refundSeat = -1, refund;
+    private long contested; // seats settle() paid from a pot that more than one seat was eligible for
+
+    private int[] contrib = new int[10];
+
+    void build(List<Player> players) {
+        int n = players.size();
+        if (contrib.length < n) contrib = new int[n];
+        long live = 0;
+        for (int s=0;s<n;s++) {
+            Player p = players.get(s);
+            contrib[s] = p.committed;
+            if (!p.folded) live |= 1L << s;
+        }
+        build(contrib, live, n);
+    }
+
+    // committed[s] = what seat s put in over the hand; live = seats that haven't folded
+    void build(int[] committed, long live, int n) {
+        int levels = 0;
+        if (caps.length < n) { caps = new int[n]; order = new int[n]; amount = new int[n]; eligible = new long[n]; }
+        int top = -1, second = 0;
+        for (int s=0;s<n;s++) {
+            if (top < 0 || committed[s] > committed[top]) { if (top >= 0) second = Math.max(second, committed[top]); top = s; }
+            else second = Math.max(second, committed[s]);
+        }
+        refundSeat = -1;
+        refund = 0;
+        contested = 0;
+        if (top >= 0 && (live & (1L << top)) != 0 && committed[top] > second) { refundSeat = top; refund = committed[top] - second; }
+        if (committed != contrib) {
+            if (contrib.length < n) contrib = new int[n];
+            System.arraycopy(committed, 0, contrib, 0, n);
+            committed = contrib;
+        }
+        if (refund > 0) committed[refundSeat] -= refund;
+        for (int s=0;s<n;s++) {
+            if ((live & (1L << s)) == 0 || committed[s] == 0) continue;
+            int c = committed[s], i = levels;
+            while (i > 0 && caps[i-1] > c) i--;
+            if (i > 0 && caps[i-1] == c) continue;
+            System.arraycopy(caps, i, caps, i + 1, levels - i);
+            caps[i] = c;
+            levels++;
+        }
+        pots = 0;
+        total = 0;
+        int prev = 0;
+        for (int k=0;k<levels;k++) {
+            int cap = caps[k], amt = 0;
+            long elig = 0;
+            for (int s=0;s<n;s++) {
+                amt += Math.max(0, Math.min(committed[s], cap) - prev);
+                if ((live & (1L << s)) != 0 && committed[s] >= cap) elig |= 1L << s;
+            }
+            amount[pots] = amt;
+            eligible[pots++] = elig;
+            total += amt;
+            prev = cap;
+        }
+        int over = 0;
+        for (int s=0;s<n;s++) over += Math.max(0, committed[s] - prev);
+        if (over > 0 && pots > 0) { amount[pots-1] += over; total += over; }
+    }
+
+    int pots() { return pots; }
+    int total() { return total; }           // every pot, without the refund
+    int refundSeat() { return refundSeat; } // -1 when every chip was called
+    int refund() { return refund; }
+    boolean wonContested(int seat) { return (contested & (1L << seat)) != 0; }
+    int amount(int pot) { return amount[pot]; }
+    long eligible(int pot) { return eligible[pot]; }
+
+    /* score[s] is seat s's showdown score (only live seats are read); live is the mask of
+       seats still in. Adds each seat's winnings to won[s]. */
+    void settle(long[] score, long live, int n, int dealer, int[] won) {
+        int m = 0;
+        for (long l = live; l != 0; l &= l - 1) {
+            int s = Long.numberOfTrailingZeros(l), i = m++;
+            while (i > 0 && score[order[i-1]] < score[s]) { order[i] = order[i-1]; i--; }
+            order[i] = s;
+        }
+        long unpaid = pots == 64 ? -1L : (1L << pots) - 1;
+        for (int i=0; i<m && unpaid != 0; ) {
+            long group = 0, best = score[order[i]];
+            while (i < m && score[order[i]] == best) group |= 1L << order[i++];
+            for (long u = unpaid; u != 0; u &= u - 1) {
+                int k = Long.numberOfTrailingZeros(u);
+                long winners = eligible[k] & group;
+                if (winners == 0) continue;
+                unpaid &= ~(1L << k);
+                if (Long.bitCount(eligible[k]) > 1) contested |= winners;
+                int w = Long.bitCount(winners), share = amount[k] / w, odd = amount[k] % w;
+                for (int j=1; j<=n; j++) {
+                    int s = (dealer + j) % n;
+                    if ((winners & (1L << s)) == 0) continue;
+                    won[s] += share + (odd-- > 0 ? 1 : 0);
+                }
+            }
+        }
+    }
+}
+
+/* ===== Game state =====
+   One hand in flat arrays and bitmasks, for search: copyFrom() is a handful of arraycopies,
+   so a search can branch by copying into a preallocated state and undo by copying the saved
+   one back, without allocating. The betting rules are BettingRound's and the dealing and
+   showdown are playHand's; the cards still to come are drawn from the undealt set with the
+   state's own SplitMix64 generator, so every copy carries its own random stream.
+   load() reads a PokerGame at a decision point (inside a betting round) as one seat sees it:
+   the other seats' hole cards are blank and go back into deck with the burns, so a search has
+   to deal them itself. store() writes stacks, bets, known cards, pot and the betting round back;
+   hole cards the state doesn't know are left as they are. */
+final class GameState {
+    final int capacity;
+    int seats, dealer, street, smallBlind, bigBlind; // street 0 pre-flop .. 3 river
+    final int[] stack, bet, committed;               // bet = this street, committed = earlier streets
+    final long[] hole;
+    long board, deck;                                // deck = cards not dealt yet
+    int pot;                                         // collected from earlier streets
+    int highBet, minRaise, lastAggressor, cursor;
+    long live, canAct, pending, reopened;            // reopened: seats that may still raise (BettingRound's)
+    long rng;
+    boolean over;                                    // pots paid out into stack[]
+    // showdown scratch, not part of the state
+    private final long[] score;
+    private final int[] won;
+    private final PotLedger ledger = new PotLedger();
+
+    GameState(int capacity) {
+        this.capacity = capacity;
+        stack = new int[capacity]; bet = new int[capacity]; committed = new int[capacity];
+        hole = new long[capacity];
+        score = new long[capacity]; won = new int[capacity];
+    }
+
+    static GameState of(PokerGame g, int viewer, long seed) { return new GameState(g.players.size()).load(g, viewer, seed); }
+
+    GameState copy() {
+        GameState c = new GameState(capacity);
+        c.copyFrom(this);
+        return c;
+    }
+
+    void copyFrom(GameState o) {
+        int n = o.seats;
+        seats = n; dealer = o.dealer; street = o.street; smallBlind = o.smallBlind; bigBlind = o.bigBlind;
+        System.arraycopy(o.stack, 0, stack, 0, n);
+        System.arraycopy(o.bet, 0, bet, 0, n);
+        System.arraycopy(o.committed, 0, committed, 0, n);
+        System.arraycopy(o.hole, 0, hole, 0, n);
+        board = o.board; deck = o.deck; pot = o.pot;
+        highBet = o.highBet; minRaise = o.minRaise; lastAggressor = o.lastAggressor; cursor = o.cursor;
+        live = o.live; canAct = o.canAct; pending = o.pending; reopened = o.reopened;
+        rng = o.rng; over = o.over;
+    }
+
+    GameState load(PokerGame g, int viewer, long seed) {
+        List<Player> ps = g.players;
+        if (ps.size() > capacity) throw new IllegalArgumentException(ps.size() + " players, room for " + capacity);
+        seats = ps.size();
+        live = canAct = 0;
+        for (int s=0;s<seats;s++) {
+            Player p = ps.get(s);
+            stack[s] = p.chips; bet[s] = p.currentBet; committed[s] = p.committed;
+            hole[s] = s == viewer ? CardSet.of(p.hole) : 0;
+            if (p.folded) continue;
+            live |= 1L << s;
+            if (p.chips > 0) canAct |= 1L << s;
+        }
+        board = CardSet.of(g.board);
+        deck = CardSet.FULL & ~(hole[viewer] | board);
+        street = Math.max(0, g.board.size() - 2);
+        pot = g.pot;
+        dealer = g.dealerIndex;
+        smallBlind = g.cfg.smallBlind; bigBlind = g.cfg.bigBlind;
+        BettingRound r = g.round;
+        highBet = r.highBet(); minRaise = r.minRaise(); lastAggressor = r.lastAggressor();
+        pending = r.pending() & canAct; reopened = r.reopened() & canAct; cursor = r.cursor();
+        rng = seed;
+        over = false;
+        return this;
+    }
+
+    void store(PokerGame g) {
+        for (int s=0;s<seats;s++) {
+            Player p = g.players.get(s);
+            p.chips = stack[s]; p.currentBet = bet[s]; p.committed = committed[s];
+            p.folded = (live & (1L << s)) == 0;
+            p.allIn = !p.folded && stack[s] == 0;
+            if (hole[s] != 0) { p.hole.clear(); p.hole.addAll(CardSet.toList(hole[s])); }
+        }
+        g.board.clear();
+        g.board.addAll(CardSet.toList(board));
+        g.pot = pot;
+        g.dealerIndex = dealer;
+        long out = CardSet.FULL & ~deck;
+        for (Player p : g.players) out |= CardSet.of(p.hole);
+        g.deck.reset();
+        g.deck.remove(out);
+        g.round.restore(g.players, pending, reopened, highBet, minRaise, lastAggressor, cursor);
+    }
+
+    // SplitMix64
+    long nextLong() {
+        long z = (rng += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    int nextInt(int bound) { return (int) (((nextLong() >>> 32) * bound) >>> 32); }
+
+    // a random undealt card, taken out of the deck
+    int draw() {
+        int c = CardSet.nth(deck, nextInt(Long.bitCount(deck)));
+        deck &= ~(1L << c);
+        return c;
+    }
+
+    // next seat to act, -1 when the hand is over
+    int toAct() {
+        if (over) return -1;
+        long after = pending & (-1L << cursor);
+        return Long.numberOfTrailingZeros(after != 0 ? after : pending);
+    }
+
+    int toCall(int seat) { return Math.min(highBet - bet[seat], stack[seat]); }
+    int minRaiseTo() { return highBet + minRaise; }
+    int potTotal() { int t = pot; for (int s=0;s<seats;s++) t += bet[s]; return t; }
+    int liveCount() { return Long.bitCount(live); }
+
+    // same rules as BettingRound.legalActions
+    int legalActions(int seat) {
+        if (over || (pending & (1L << seat)) == 0) return 0;
+        int call = highBet - bet[seat], legal = 0;
+        boolean open = (reopened & (1L << seat)) != 0;
+        if (call > 0) legal |= 1 << Action.FOLD | 1 << Action.CALL;
+        else legal |= 1 << Action.CHECK;
+        if (stack[seat] > 0 && (open || stack[seat] <= call)) legal |= 1 << Action.ALL_IN;
+        if (open && bet[seat] + stack[seat] > minRaiseTo() && Long.bitCount(canAct) > 1) legal |= 1 << Action.RAISE;
+        return legal;
+    }
+
+    /* The seat to act does action (amount = chips to put in for a raise, made legal the way
+       PokerGame.perform does it); streets are dealt and the hand is settled as soon as betting allows. */
+    void apply(int action, int amount) {
+        int s = toAct();
+        if (s < 0) throw new IllegalStateException("Nobody to act");
+        long bit = 1L << s;
+        boolean open = (reopened & bit) != 0;
+        pending &= ~bit;
+        reopened &= ~bit;
+        cursor = s + 1 == seats ? 0 : s + 1;
+        if (action == Action.FOLD) {
+            live &= ~bit; canAct &= ~bit;
+        } else {
+            int toCall = highBet - bet[s];
+            if (action == Action.ALL_IN && !open) action = Action.CALL;
+            if (action == Action.RAISE && (!open || Long.bitCount(canAct) < 2 || amount <= toCall || stack[s] <= toCall)) action = Action.CALL;
+            int put = action == Action.ALL_IN ? stack[s]
+                    : action == Action.RAISE ? Math.min(Math.max(minRaiseTo() - bet[s], amount), stack[s])
+                    : Math.max(0, Math.min(toCall, stack[s]));
+            bet[s] += put; stack[s] -= put;
+            if (stack[s] == 0) canAct &= ~bit;
+            if (bet[s] > highBet) {
+                int raise = bet[s] - highBet;
+                highBet = bet[s];
+                if (raise >= minRaise) {
+                    minRaise = raise;
+                    lastAggressor = s;
+                    pending = reopened = canAct & ~bit;
+                } else {
+                    for (long m = canAct & ~bit; m != 0; m &= m - 1) {
+                        int o = Long.numberOfTrailingZeros(m);
+                        if (bet[o] < highBet) pending |= 1L << o;
+                    }
+                }
+            } else if (bet[s] < highBet && (canAct & bit) != 0) {
+                pending |= bit;
+            }
+        }
+        advance();
+    }
+
+    // ends streets (dealing the next one) for as long as nobody is left to act
+    void advance() {
+        while (!over && streetOver()) endStreet();
+    }
+
+    private boolean streetOver() {
+        if (pending == 0 || Long.bitCount(live) < 2) return true;
+        if (Long.bitCount(canAct) == 1) { // everyone else is all-in: only a short call is left
+            int s = Long.numberOfTrailingZeros(canAct);
+            return bet[s] >= highBet;
+        }
+        return false;
+    }
+
+    private void endStreet() {
+        for (int s=0;s<seats;s++) { committed[s] += bet[s]; pot += bet[s]; bet[s] = 0; }
+        highBet = 0; minRaise = bigBlind; lastAggressor = -1; pending = 0;
+        if (Long.bitCount(live) == 1) {
+            stack[Long.numberOfTrailingZeros(live)] += pot;
+            over = true;
             return;
         }
-        if (in.equals("r")) {
-            System.out.print("Enter raise amount (min " + Math.max(cfg.bigBlind, currentMaxBet*2) + " or type 'all' to shove): ");
-            String s = sc.nextLine().trim().toLowerCase();
-            if (s.equals("all")) {
-                int amt = p.chips;
-                p.currentBet += amt;
-                p.chips -= amt;
-                if (p.chips == 0) p.allIn = true;
-                System.out.println(p.name + " goes all-in with " + amt);
-                return;
+        if (street == 3) { showdown(); return; }
+        street++;
+        draw(); // burn
+        board |= 1L << draw();
+        if (street == 1) { board |= 1L << draw(); board |= 1L << draw(); }
+        reopened = canAct;
+        if (Long.bitCount(canAct) > 1) pending = canAct;
+        cursor = (dealer + 1) % seats;
+    }
+
+    private void showdown() {
+        int boardState = LookupEvaluator.walk(0, board);
+        for (int s=0;s<seats;s++) {
+            won[s] = 0;
+            if ((live & (1L << s)) != 0) score[s] = LookupEvaluator.score(boardState, board, hole[s]);
+        }
+        ledger.build(committed, live, seats);
+        if (ledger.refund() > 0) stack[ledger.refundSeat()] += ledger.refund();
+        ledger.settle(score, live, seats, dealer, won);
+        for (int s=0;s<seats;s++) stack[s] += won[s];
+        over = true;
+    }
+}
+
+/* ===== Strategies =====
+   A Strategy decides for one seat from a DecisionView, an immutable snapshot made of
+   primitives: cards as CardSets, chips as ints and the legal actions as a bitmask of Action
+   codes. The answer is a long made with Action.of(type, amount), where amount is the chips
+   to put in now; PokerGame turns it into chips and events. decideAll answers many views at
+   once, so an expensive bot can batch the work coming from many tables. */
+final class DecisionView {
+    final int seat, seats;
+    final long hole, board;
+    final int pot;        // collected pots plus the bets in front of players this street
+    final int toCall;     // highest bet minus this seat's bet (may exceed the stack)
+    final int currentBet, stack, highBet, minRaiseTo, maxRaiseTo, bigBlind;
+    final int opponents;  // other hands still live
+    final int opponentStack; // the deepest live opponent's chips, behind plus bet
+    final int legal;      // bit (1 << Action code) for each legal action
+    final GameState state; // the strategy's own copy of the whole hand if it wantsState(), else null
+    final OpponentModel ranges; // the table's ranges for the other seats if it keeps them, else null
+    final Random rand;    // the deciding table's random source, so one strategy can serve many tables; may be null
+
+    DecisionView(int seat, int seats, long hole, long board, int pot, int toCall, int currentBet, int stack,
+                 int highBet, int minRaiseTo, int maxRaiseTo, int bigBlind, int opponents, int opponentStack, int legal) {
+        this(seat, seats, hole, board, pot, toCall, currentBet, stack, highBet, minRaiseTo, maxRaiseTo, bigBlind, opponents, opponentStack, legal, null);
+    }
+    DecisionView(int seat, int seats, long hole, long board, int pot, int toCall, int currentBet, int stack,
+                 int highBet, int minRaiseTo, int maxRaiseTo, int bigBlind, int opponents, int opponentStack, int legal, GameState state) {
+        this(seat, seats, hole, board, pot, toCall, currentBet, stack, highBet, minRaiseTo, maxRaiseTo, bigBlind, opponents, opponentStack, legal, state, null, null);
+    }
+    DecisionView(int seat, int seats, long hole, long board, int pot, int toCall, int currentBet, int stack, int highBet, int minRaiseTo,
+                 int maxRaiseTo, int bigBlind, int opponents, int opponentStack, int legal, GameState state, OpponentModel ranges, Random rand) {
+        this.state = state; this.ranges = ranges; this.rand = rand;
+        this.seat = seat; this.seats = seats; this.hole = hole; this.board = board; this.pot = pot;
+        this.toCall = toCall; this.currentBet = currentBet; this.stack = stack; this.highBet = highBet;
+        this.minRaiseTo = minRaiseTo; this.maxRaiseTo = maxRaiseTo; this.bigBlind = bigBlind;
+        this.opponents = opponents; this.opponentStack = opponentStack; this.legal = legal;
+    }
+
+    int street() { return Math.max(0, CardSet.size(board) - 2); } // 0 pre-flop, 1 flop, 2 turn, 3 river
+    boolean canCheck() { return toCall <= 0; }
+}
+
+interface Strategy {
+    long decide(DecisionView view);
+
+    // search strategies get a GameState snapshot in the view
+    default boolean wantsState() { return false; }
+
+    default void decideAll(DecisionView[] views, long[] out, int count) {
+        for (int i=0;i<count;i++) out[i] = decide(views[i]);
+    }
+}
+
+/* The original table AI: hand strength against cfg's raise / re-raise / call thresholds
+   with a few coin flips. Strength is the pre-flop table, exact equity from the turn on,
+   Monte Carlo otherwise - or the quick heuristic without aiUseEquity. */
+class ThresholdStrategy implements Strategy {
+    final GameConfig cfg;
+    final Random rand;
+    EquityEngine equity = new EquityEngine();
+    PreflopTable preflop;
+    PushFoldChart pushFold;
+    StrengthCache cache;
+
+    ThresholdStrategy(GameConfig cfg, Random rand) {
+        this.cfg = cfg;
+        this.rand = rand;
+        this.preflop = PreflopTable.load(cfg.preflopTable);
+        this.pushFold = PushFoldChart.load(cfg.pushFoldChart);
+        if (cfg.aiUseEquity && cfg.strengthCacheMB > 0) this.cache = StrengthCache.shared(cfg.strengthCacheMB);
+    }
+
+    // the deciding table's Random when the view carries one, so a shared strategy keeps tables apart
+    Random random(DecisionView v) { return v.rand != null ? v.rand : rand; }
+
+    @Override public long decide(DecisionView v) {
+        long chart = pushFold(v);
+        if (chart >= 0) return chart;
+        long icm = icmCall(v);
+        if (icm >= 0) return icm;
+        double strength = strength(v);
+        int needToCall = v.toCall, bb = v.bigBlind;
+        if (cfg.verboseAI) System.out.println("seat " + v.seat + " strength=" + String.format("%.2f", strength));
+        // Aggressive if strong, fold if weak and need to call, randomize a bit
+        double r = random(v).nextDouble();
+        if (v.canCheck()) {
+            if (strength > cfg.aiRaiseThreshold && r < 0.7 && v.stack > bb) {
+                return Action.of(Action.RAISE, Math.min(v.stack, bb + random(v).nextInt(bb*3)));
             }
-            try {
-                int raiseAmt = Integer.parseInt(s);
-                // interpret as total bet or as raise? Simpler: treat input as amount to put in additional to currentBet
-                if (raiseAmt <= 0) { System.out.println("Invalid amount. Treating as call."); callHuman(p, currentMaxBet); return; }
-                if (raiseAmt >= p.chips) {
-                    int put = p.chips;
-                    p.currentBet += put;
-                    p.chips -= put;
-                    if (p.chips == 0) p.allIn = true;
-                    System.out.println(p.name + " goes all-in with " + put);
-                    return;
-                } else {
-                    p.currentBet += raiseAmt;
-                    p.chips -= raiseAmt;
-                    System.out.println(p.name + " raises by " + raiseAmt + " (current bet: " + p.currentBet + ")");
-                    return;
-                }
-            } catch (NumberFormatException ex) { System.out.println("Invalid input. Treating as call."); callHuman(p, currentMaxBet); return; }
+            return Action.of(Action.CHECK, 0);
+        }
+        if (strength > cfg.aiReraiseThreshold && r < 0.9) {
+            // reraise or call
+            int raiseBy = Math.min(v.stack - needToCall, Math.max(bb, needToCall*2));
+            if (raiseBy > 0 && random(v).nextDouble() < 0.6) return Action.of(Action.RAISE, Math.min(needToCall + raiseBy, v.stack));
+            return Action.of(Action.CALL, Math.min(needToCall, v.stack));
         }
-        // default to call or check
-        callHuman(p, currentMaxBet);
+        if (strength > cfg.aiCallThreshold && random(v).nextDouble() < 0.8) return Action.of(Action.CALL, Math.min(needToCall, v.stack));
+        // fold if can't afford or unlikely; maybe call all-in occasionally
+        if (needToCall >= v.stack && r < 0.15) return Action.of(Action.CALL, v.stack);
+        return Action.of(Action.FOLD, 0);
     }
 
-    void callHuman(Player p, int currentMaxBet) {
-        int need = currentMaxBet - p.currentBet;
-        if (need <= 0) {
-            System.out.println(p.name + " checks.");
-            return;
+    /* Heads-up pre-flop within the chart's depths, shove or fold first in and call or fold
+       facing a shove, mixing as the chart says. -1 when the chart doesn't apply. */
+    long pushFold(DecisionView v) {
+        if (pushFold == null || v.seats != 2 || v.opponents != 1 || v.board != 0) return -1;
+        int bb = v.bigBlind, behind = v.stack + v.currentBet;
+        double effective = Math.min(behind, v.opponentStack) / (double) bb;
+        if (effective > pushFold.maxDepth()) return -1;
+        int d = pushFold.nearest(effective), cls = PreflopTable.handClass(v.hole);
+        if (v.highBet == bb && v.currentBet < bb) { // small blind, unopened
+            return random(v).nextDouble() < pushFold.push(d, cls) ? Action.of(Action.ALL_IN, v.stack) : Action.of(Action.FOLD, 0);
         }
-        int put = Math.min(need, p.chips);
-        p.currentBet += put;
-        p.chips -= put;
-        if (p.chips == 0) p.allIn = true;
-        System.out.println(p.name + " calls " + put + (p.allIn ? " (all-in)" : ""));
+        if (v.highBet > bb && v.currentBet == bb && v.highBet >= Math.min(behind, v.opponentStack)) { // big blind facing a shove
+            return random(v).nextDouble() < pushFold.call(d, cls) ? Action.of(Action.CALL, Math.min(v.toCall, v.stack)) : Action.of(Action.FOLD, 0);
+        }
+        return -1;
     }
 
-    void aiAction(Player p, int currentMaxBet) {
-        if (p.folded || p.chips <= 0) return;
-        // Basic AI heuristics: compute rough hand strength from hole + board
-        double strength = estimateHandStrength(p);
-        int needToCall = currentMaxBet - p.currentBet;
-        boolean canCheck = needToCall <= 0;
-        if (cfg.verboseAI) System.out.println(p.name + " strength=" + String.format("%.2f", strength));
-        // Aggressive if strong, fold if weak and need to call, randomize a bit
-        double r = rand.nextDouble();
-        if (canCheck) {
-            if (strength > 0.6 && r < 0.7 && p.chips > cfg.bigBlind) {
-                // raise
-                int raiseBy = Math.min(p.chips, cfg.bigBlind + rand.nextInt(cfg.bigBlind*3));
-                p.currentBet += raiseBy; p.chips -= raiseBy;
-                System.out.println(p.name + " raises " + raiseBy + ".");
-            } else {
-                System.out.println(p.name + " checks.");
-            }
-        } else {
-            if (strength > 0.7 && r < 0.9) {
-                // reraise or call
-                int raiseBy = Math.min(p.chips - needToCall, Math.max(cfg.bigBlind, (int)(needToCall*2)));
-                if (raiseBy > 0 && rand.nextDouble() < 0.6) {
-                    // raise
-                    int totalPut = needToCall + raiseBy;
-                    if (totalPut >= p.chips) { totalPut = p.chips; p.allIn = true; }
-                    p.currentBet += totalPut; p.chips -= totalPut;
-                    System.out.println(p.name + " calls and raises to " + p.currentBet + ".");
-                } else {
-                    // call
-                    int put = Math.min(needToCall, p.chips);
-                    p.currentBet += put; p.chips -= put;
-                    if (p.chips==0) p.allIn=true;
-                    System.out.println(p.name + " calls " + put + ".");
-                }
-            } else if (strength > 0.35 && rand.nextDouble() < 0.8) {
-                // call moderate
-                int put = Math.min(needToCall, p.chips);
-                p.currentBet += put; p.chips -= put;
-                if (p.chips==0) p.allIn=true;
-                System.out.println(p.name + " calls " + put + ".");
-            } else {
-                // fold if can't afford or unlikely
-                if (needToCall >= p.chips) {
-                    // maybe call all-in occasionally
-                    if (r < 0.15) {
-                        int put = p.chips; p.currentBet += put; p.chips = 0; p.allIn = true;
-                        System.out.println(p.name + " calls all-in " + put + ".");
-                    } else {
-                        p.folded = true; System.out.println(p.name + " folds.");
-                    }
-                } else {
-                    p.folded = true; System.out.println(p.name + " folds.");
-                }
-            }
+    // the table's stacks for icmCall
+    @Override public boolean wantsState() { return cfg.payouts != null; }
+
+    /* Facing an all-in (ours or theirs) against one opponent in a tournament with payouts:
+       call when strength beats the share of prize equity at risk under ICM - (fold - lose) /
+       (win - lose) - instead of the chip price. -1 when it doesn't apply. */
+    long icmCall(DecisionView v) {
+        GameState s = v.state;
+        if (cfg.payouts == null || s == null || v.opponents != 1 || v.canCheck()) return -1;
+        int me = v.seat, villain = Long.numberOfTrailingZeros(s.live & ~(1L << me));
+        if (v.toCall < s.stack[me] && s.stack[villain] > 0) return -1; // the call doesn't end the betting
+        int mine = s.stack[me] + s.bet[me], theirs = s.stack[villain] + s.bet[villain], dead = s.pot - s.bet[me] - s.bet[villain];
+        for (int i=0;i<s.seats;i++) dead += s.bet[i];
+        int matched = Math.min(mine, theirs);
+        int[] stacks = Arrays.copyOf(s.stack, s.seats);
+        stacks[me] = s.stack[me]; stacks[villain] = theirs + s.bet[me] + dead;
+        double fold = Icm.equity(stacks, cfg.payouts)[me];
+        stacks[me] = mine + matched + dead; stacks[villain] = theirs - matched;
+        double win = Icm.equity(stacks, cfg.payouts)[me];
+        stacks[me] = mine - matched; stacks[villain] = theirs + matched + dead;
+        double lose = Icm.equity(stacks, cfg.payouts)[me];
+        if (win <= lose) return -1;
+        double need = (fold - lose) / (win - lose), strength = strength(v);
+        if (cfg.verboseAI) System.out.println("seat " + v.seat + String.format(" ICM needs %.2f, strength=%.2f", need, strength));
+        return strength >= need ? Action.of(Action.CALL, Math.min(v.toCall, v.stack)) : Action.of(Action.FOLD, 0);
+    }
+
+    /* Hand strength in 0..1 for the thresholds. With aiUseEquity this is equity against the
+       hands still live - their modelled ranges when the view has them, else random hands -
+       scaled so a fair share of the pot (1/(opponents+1)) maps to 0.5 and twice the fair
+       share or more maps to 1. */
+    double strength(DecisionView v) {
+        if (!cfg.aiUseEquity || CardSet.size(v.hole) < 2) return heuristicStrength(v.hole, v.board);
+        int opponents = v.opponents;
+        if (opponents == 0) return 1.0;
+        if (v.ranges != null) {
+            Equity eq = v.ranges.equity(v.seat, v.hole, v.board, cfg.equitySamples, cfg.equityBudgetMillis * 1_000_000L, random(v).nextLong());
+            if (cfg.verboseAI) System.out.println("seat " + v.seat + " vs ranges " + eq);
+            return Math.min(1.0, eq.equity * (opponents + 1) / 2);
         }
+        if (v.board == 0 && preflop != null && opponents <= preflop.maxOpponents) {
+            return Math.min(1.0, preflop.equity(v.hole, opponents) * (opponents + 1) / 2);
+        }
+        long key = 0;
+        if (cache != null) {
+            key = SuitIsomorphism.key(v.hole, v.board, opponents);
+            double hit = cache.get(key);
+            if (!Double.isNaN(hit)) return hit;
+        }
+        Equity eq = CardSet.size(v.board) >= 4 && ExactEquity.cost(v.hole, v.board, 0L, opponents) <= cfg.exactEquityMaxDeals
+                ? ExactEquity.compute(v.hole, v.board, 0L, opponents)
+                : equity.estimate(v.hole, v.board, 0L, opponents, cfg.equitySamples, cfg.equityBudgetMillis * 1_000_000L, random(v).nextLong());
+        if (cfg.verboseAI) System.out.println("seat " + v.seat + " " + eq);
+        double strength = Math.min(1.0, eq.equity * (opponents + 1) / 2);
+        if (cache != null) cache.put(key, strength);
+        return strength;
     }
 
     // very rough strength estimator: evaluate best 5-card hand using available cards (if <5, approximate)
-    double estimateHandStrength(Player p) {
-        List<Card> available = new ArrayList<>(board);
-        available.addAll(p.hole);
-        if (available.size() < 2) return 0.5;
-        if (available.size() < 5) {
+    static double heuristicStrength(long hole, long board) {
+        long available = board | hole;
+        if (CardSet.size(available) < 2) return 0.5;
+        if (CardSet.size(available) < 5) {
             // quick heuristic: pair in hole, high cards, suited
-            int a = p.hole.get(0).rank, b = p.hole.get(1).rank;
+            Card c1 = Card.of(Long.numberOfTrailingZeros(hole)), c2 = Card.of(63 - Long.numberOfLeadingZeros(hole));
+            int a = c1.rank, b = c2.rank;
             double score = 0;
             if (a==b) score += 0.5;
             if (a>=11) score += 0.2;
             if (b>=11) score += 0.2;
-            if (p.hole.get(0).suit == p.hole.get(1).suit) score += 0.15;
+            if (c1.suit == c2.suit) score += 0.15;
             return Math.min(1.0, score);
         } else {
-            HandValue hv = HandEvaluator.evaluate(available);
+            long score = LookupEvaluator.score(available);
             // map category to approx strength
-            int category = (int)(hv.score >> 40);
+            int category = (int)(score >> 40);
             double base = switch(category) {
                 case 9 -> 0.99;
                 case 8 -> 0.95;
@@ -603,11 +4865,635 @@ class PokerGame {
                 default -> 0.5;
             };
             // tweak by high card inside five
-            int top = (int)((hv.score >> 32) & 0xFF);
+            int top = (int)((score >> 32) & 0xFF);
             base += (top - 2) / 200.0;
             return Math.min(0.999, base);
         }
     }
+}
+
+// The console player: asks for c/r/f on stdin ('q' quits)
+class ConsoleStrategy implements Strategy {
+    final Scanner sc;
+    ConsoleStrategy(Scanner sc) { this.sc = sc; }
+
+    @Override public long decide(DecisionView v) {
+        while (true) {
+            System.out.print("Choose action - ");
+            if (v.canCheck()) System.out.print("[c]heck ");
+            else System.out.print("[c]all ");
+            System.out.print("[r]aise [f]old: ");
+            String in = sc.nextLine().trim().toLowerCase();
+            if (in.equals("q")) { System.exit(0); }
+            if (in.equals("f")) return Action.of(Action.FOLD, 0);
+            if (in.equals("r")) {
+                int min = v.minRaiseTo - v.currentBet;
+                System.out.print("Enter raise amount (min " + min + " or type 'all' to shove): ");
+                String s = sc.nextLine().trim().toLowerCase();
+                if (s.equals("all")) return Action.of(Action.ALL_IN, v.stack);
+                try {
+                    int raiseAmt = Integer.parseInt(s); // chips to put in on top of the current bet
+                    if (raiseAmt <= 0) { System.out.println("Invalid amount. Treating as call."); return Action.of(Action.CALL, 0); }
+                    if (raiseAmt >= v.stack) return Action.of(Action.ALL_IN, v.stack);
+                    if (raiseAmt < min || (v.legal & 1 << Action.RAISE) == 0) {
+                        System.out.println((v.legal & 1 << Action.RAISE) == 0 ? "You can't raise here." : "A raise is at least " + min + ".");
+                        continue; // ask again
+                    }
+                    return Action.of(Action.RAISE, raiseAmt);
+                } catch (NumberFormatException ex) { System.out.println("Invalid input. Treating as call."); }
+            }
+            // default to call or check
+            return Action.of(Action.CALL, 0);
+        }
+    }
+}
+
+/* Collects decide() calls from many threads (tables running in parallel) into batches for
+   the delegate's decideAll. A batch runs when it is full or when its first caller has waited
+   lingerMicros; the caller that triggers it runs it outside the lock while the rest wait. */
+class BatchingStrategy implements Strategy {
+    private static final class Batch {
+        final DecisionView[] views;
+        final long[] out;
+        int count;
+        boolean done;
+        Batch(int size) { views = new DecisionView[size]; out = new long[size]; }
+    }
+
+    private final Strategy delegate;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();
+    private Batch open;
+    private long batches, decided;
+
+    BatchingStrategy(Strategy delegate, int batchSize, long lingerMicros) {
+        this.delegate = delegate;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = lingerMicros * 1000;
+        this.open = new Batch(this.batchSize);
+    }
+
+    @Override public long decide(DecisionView view) {
+        Batch b;
+        int slot;
+        lock.lock();
+        try {
+            b = open;
+            slot = b.count++;
+            b.views[slot] = view;
+            if (b.count < batchSize) {
+                long wait = lingerNanos;
+                while (!b.done && open == b && wait > 0) wait = finished.awaitNanos(wait);
+                while (!b.done && open != b) finished.await(); // someone else is running it
+                if (b.done) return b.out[slot];
+            }
+            open = new Batch(batchSize); // this caller runs the batch
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a batch", e);
+        } finally {
+            lock.unlock();
+        }
+        delegate.decideAll(b.views, b.out, b.count);
+        lock.lock();
+        try {
+            b.done = true;
+            batches++;
+            decided += b.count;
+            finished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return b.out[slot];
+    }
+
+    @Override public boolean wantsState() { return delegate.wantsState(); }
+
+    @Override public void decideAll(DecisionView[] views, long[] out, int count) { delegate.decideAll(views, out, count); }
+
+    double averageBatch() {
+        lock.lock();
+        try { return batches == 0 ? 0 : decided / (double) batches; } finally { lock.unlock(); }
+    }
+}
+
+/* ===== Monte Carlo tree search =====
+   MctsStrategy searches the hand from the current decision with the table's GameState
+   (Strategy.wantsState). Every iteration determinizes: the opponents' hole cards are redrawn
+   from the cards the searcher can't see, preferring hands that fit chips they put in. The
+   tree branches only on the searcher's own decisions, by UCB1 over five abstract actions
+   (fold, check/call, min raise, pot raise, all-in); opponents, and everyone after the new
+   leaf, act by a cheap strength-threshold policy like the table AI's. The leaf's chip result
+   is backed up. The tree is keyed by the searcher's action history only (open loop), so
+   different deals share statistics.
+   Root-parallel: each worker grows its own tree until the per-decision budget runs out, and
+   the root visit counts are summed to pick the action. */
+class MctsStrategy implements Strategy {
+    static final int ACTIONS = 5, A_FOLD = 0, A_CALL = 1, A_MIN_RAISE = 2, A_POT_RAISE = 3, A_ALL_IN = 4;
+    static final int MAX_NODES = 1 << 15; // per worker; past this the tree stops growing
+    static final double EXPLORATION = 0.7;
+    // the rollout policy's heuristic-strength thresholds, and the strength assumed for hands
+    // that put chips in beyond the blinds
+    static final double POLICY_RAISE = 0.7, POLICY_FOLD = 0.35, MODEL_MIN_STRENGTH = 0.35;
+    static final int MODEL_TRIES = 8;
+
+    final long budgetNanos;
+    final int maxIterations;
+    final boolean verbose;
+    private final ForkJoinPool pool;
+    private final Worker[] workers;
+    private final LongAdder playouts = new LongAdder(), searchNanos = new LongAdder(), decisions = new LongAdder();
+
+    MctsStrategy(GameConfig cfg) {
+        this(cfg.mctsBudgetMillis, Integer.MAX_VALUE, cfg.mctsThreads > 0 ? cfg.mctsThreads : Runtime.getRuntime().availableProcessors(),
+                cfg.verboseAI, ForkJoinPool.commonPool());
+    }
+    MctsStrategy(long budgetMillis, int maxIterations, int threads, boolean verbose, ForkJoinPool pool) {
+        this.budgetNanos = budgetMillis * 1_000_000;
+        this.maxIterations = maxIterations;
+        this.verbose = verbose;
+        this.pool = pool;
+        this.workers = new Worker[Math.max(1, threads)];
+        for (int i=0;i<workers.length;i++) workers[i] = new Worker();
+    }
+
+    @Override public boolean wantsState() { return true; }
+
+    @Override public synchronized long decide(DecisionView v) {
+        GameState root = v.state;
+        if (root == null) throw new IllegalArgumentException("MctsStrategy needs DecisionView.state");
+        long start = System.nanoTime(), deadline = start + budgetNanos;
+        SplittableRandom seeds = new SplittableRandom(root.rng);
+        List<ForkJoinTask<Worker>> tasks = new ArrayList<>(workers.length);
+        for (Worker w : workers) {
+            long seed = seeds.nextLong();
+            tasks.add(pool.submit(() -> w.search(root, v.seat, seed, deadline, maxIterations)));
+        }
+        long[] visits = new long[ACTIONS];
+        long iterations = 0;
+        double[] value = new double[ACTIONS];
+        for (ForkJoinTask<Worker> t : tasks) {
+            Worker w = t.join();
+            iterations += w.iterations;
+            for (int a=0;a<ACTIONS;a++) { visits[a] += w.visits[a]; value[a] += w.value[a]; }
+        }
+        long nanos = System.nanoTime() - start;
+        playouts.add(iterations);
+        searchNanos.add(nanos);
+        decisions.increment();
+        int best = A_CALL;
+        for (int a=0;a<ACTIONS;a++) if (visits[a] > visits[best]) best = a;
+        if (verbose) {
+            StringBuilder sb = new StringBuilder("seat " + v.seat + " mcts " + iterations + " playouts:");
+            for (int a=0;a<ACTIONS;a++) if (visits[a] > 0) sb.append(String.format(" %s %d/%.2f", NAMES[a], visits[a], value[a] / visits[a]));
+            System.out.println(sb);
+        }
+        return decision(root, v.seat, best);
+    }
+
+    static final String[] NAMES = { "fold", "call", "min", "pot", "allin" };
+
+    // the table action for an abstract one
+    static long decision(GameState s, int seat, int a) {
+        return switch (a) {
+            case A_FOLD -> Action.of(Action.FOLD, 0);
+            case A_MIN_RAISE -> Action.of(Action.RAISE, s.minRaiseTo() - s.bet[seat]);
+            case A_POT_RAISE -> Action.of(Action.RAISE, potRaise(s, seat));
+            case A_ALL_IN -> Action.of(Action.ALL_IN, s.stack[seat]);
+            default -> Action.of(Action.CALL, s.toCall(seat));
+        };
+    }
+
+    // chips to put in for a raise of the size of the pot after calling
+    private static int potRaise(GameState s, int seat) {
+        int call = s.highBet - s.bet[seat];
+        return call + s.potTotal() + call;
+    }
+
+    // bit a set for each abstract action that is legal and distinct for the seat to act
+    static int abstractActions(GameState s, int seat) {
+        int legal = s.legalActions(seat), out = 1 << A_CALL;
+        if ((legal & (1 << Action.FOLD)) != 0) out |= 1 << A_FOLD;
+        if ((legal & (1 << Action.RAISE)) != 0) {
+            int min = s.minRaiseTo() - s.bet[seat], pot = potRaise(s, seat);
+            if (min < s.stack[seat]) out |= 1 << A_MIN_RAISE;
+            if (pot > min && pot < s.stack[seat]) out |= 1 << A_POT_RAISE;
+        }
+        if ((legal & (1 << Action.ALL_IN)) != 0 && s.stack[seat] > s.toCall(seat)) out |= 1 << A_ALL_IN;
+        return out;
+    }
+
+    // cheap default policy: raise strong hands, fold weak ones to a bet, otherwise check/call
+    static int policy(GameState g, int seat) {
+        int allowed = abstractActions(g, seat), r = g.nextInt(100);
+        double strength = ThresholdStrategy.heuristicStrength(g.hole[seat], g.board);
+        if (strength > POLICY_RAISE && r < 60 && (allowed & (1 << A_MIN_RAISE)) != 0) return A_MIN_RAISE;
+        if (strength < POLICY_FOLD && r < 80 && (allowed & (1 << A_FOLD)) != 0) return A_FOLD;
+        return A_CALL;
+    }
+
+    static void play(GameState s, int seat, int a) {
+        long d = decision(s, seat, a);
+        s.apply(Action.type(d), Action.amount(d));
+    }
+
+    long playouts() { return playouts.sum(); }
+
+    double playoutsPerSecond() {
+        long n = searchNanos.sum();
+        return n == 0 ? 0 : playouts.sum() / (n / 1e9);
+    }
+
+    @Override public String toString() {
+        long d = decisions.sum();
+        return String.format("mcts: %,d decisions, %,.0f playouts/decision, %,.0f playouts/sec, %.1f ms/decision", d,
+                d == 0 ? 0.0 : playouts.sum() / (double) d, playoutsPerSecond(), d == 0 ? 0.0 : searchNanos.sum() / 1e6 / d);
+    }
+
+    // One root-parallel searcher; its tree arrays are reused from decision to decision.
+    private static final class Worker {
+        final int[] child = new int[MAX_NODES * ACTIONS];
+        final int[] edgeVisits = new int[MAX_NODES * ACTIONS];
+        final double[] edgeValue = new double[MAX_NODES * ACTIONS];
+        final int[] nodeVisits = new int[MAX_NODES];
+        final int[] pathEdge = new int[512];
+        final GameState work = new GameState(64);
+        int nodes;
+        long iterations;
+        final long[] visits = new long[ACTIONS];
+        final double[] value = new double[ACTIONS];
+
+        Worker search(GameState root, int me, long seed, long deadline, int maxIterations) {
+            nodes = 1;
+            Arrays.fill(child, 0, ACTIONS, -1);
+            Arrays.fill(edgeVisits, 0, ACTIONS, 0);
+            Arrays.fill(edgeValue, 0, ACTIONS, 0);
+            nodeVisits[0] = 0;
+            iterations = 0;
+            long pool = CardSet.FULL & ~(root.hole[me] | root.board); // what the searcher can't see
+            double scale = 0; // rewards in units of the biggest stake at the table
+            for (int s=0;s<root.seats;s++) scale = Math.max(scale, root.stack[s] + root.bet[s] + root.committed[s]);
+            while (iterations < maxIterations && ((iterations & 15) != 0 || System.nanoTime() < deadline)) {
+                iterations++;
+                GameState g = work;
+                g.copyFrom(root);
+                g.rng = seed + iterations * 0x9E3779B97F4A7C15L;
+                determinize(g, me, pool);
+                int node = 0, depth = 0;
+                boolean expanded = false;
+                // selection and expansion over our own decisions
+                for (int seat = g.toAct(); seat >= 0 && !expanded && depth < pathEdge.length; seat = g.toAct()) {
+                    if (seat != me) { play(g, seat, policy(g, seat)); continue; }
+                    int allowed = abstractActions(g, seat), a = select(node, allowed);
+                    int edge = node * ACTIONS + a;
+                    pathEdge[depth++] = edge;
+                    play(g, seat, a);
+                    if (child[edge] < 0) {
+                        if (nodes < MAX_NODES) {
+                            int c = nodes++;
+                            child[edge] = c;
+                            Arrays.fill(child, c * ACTIONS, c * ACTIONS + ACTIONS, -1);
+                            Arrays.fill(edgeVisits, c * ACTIONS, c * ACTIONS + ACTIONS, 0);
+                            Arrays.fill(edgeValue, c * ACTIONS, c * ACTIONS + ACTIONS, 0);
+                            nodeVisits[c] = 0;
+                        }
+                        expanded = true;
+                    } else {
+                        node = child[edge];
+                    }
+                }
+                rollout(g);
+                double reward = (g.stack[me] - root.stack[me]) / scale;
+                for (int d=0; d<depth; d++) {
+                    int edge = pathEdge[d];
+                    edgeVisits[edge]++;
+                    edgeValue[edge] += reward;
+                    nodeVisits[edge / ACTIONS]++;
+                }
+            }
+            for (int a=0;a<ACTIONS;a++) { visits[a] = edgeVisits[a]; value[a] = edgeValue[a]; }
+            return this;
+        }
+
+        /* redraw every live opponent's hole cards from the unseen cards; a player who put in
+           more than the big blind gets a few tries at a hand the policy would have played */
+        private static void determinize(GameState g, int me, long pool) {
+            long deck = pool;
+            for (int s=0;s<g.seats;s++) {
+                if (s == me) continue;
+                g.hole[s] = 0;
+                if ((g.live & (1L << s)) == 0) continue;
+                boolean invested = g.committed[s] + g.bet[s] > g.bigBlind;
+                long hand = 0;
+                for (int t = 0; t < (invested ? MODEL_TRIES : 1); t++) {
+                    int c1 = CardSet.nth(deck, g.nextInt(Long.bitCount(deck)));
+                    int c2 = CardSet.nth(deck & ~(1L << c1), g.nextInt(Long.bitCount(deck) - 1));
+                    hand = 1L << c1 | 1L << c2;
+                    if (ThresholdStrategy.heuristicStrength(hand, g.board) >= MODEL_MIN_STRENGTH) break;
+                }
+                deck &= ~hand;
+                g.hole[s] = hand;
+            }
+            g.deck = deck;
+        }
+
+        private int select(int node, int allowed) {
+            int base = node * ACTIONS, best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY, logN = Math.log(nodeVisits[node] + 1);
+            for (int m = allowed; m != 0; m &= m - 1) {
+                int a = Integer.numberOfTrailingZeros(m), n = edgeVisits[base + a];
+                if (n == 0) return a; // try everything once
+                double score = edgeValue[base + a] / n + EXPLORATION * Math.sqrt(logN / n);
+                if (score > bestScore) { bestScore = score; best = a; }
+            }
+            return best;
+        }
+
+        private static void rollout(GameState g) {
+            for (int seat = g.toAct(); seat >= 0; seat = g.toAct()) play(g, seat, policy(g, seat));
+        }
+    }
+}
+
+/* ===== PokerGame ===== */
+class PokerGame {
+    GameConfig cfg;
+    List<Player> players = new ArrayList<>();
+    Deck deck;
+    List<Card> board = new ArrayList<>();
+    int dealerIndex = 0;
+    int pot = 0;
+    Scanner sc = new Scanner(System.in);
+    final Random rand;
+    Strategy ai;    // seats without their own strategy
+    Strategy human;
+    long decisions = 0; // player actions taken, for the simulator
+    final BettingRound round = new BettingRound();
+    final PotLedger pots = new PotLedger();
+    private long[] score = new long[10]; // showdown scores by seat
+    private int[] won = new int[10];      // showdown winnings by seat
+    GameEvents events;   // where everything that happens at the table is reported
+    OpponentModel ranges; // opponents' hand ranges for the AI's equity, or null for random hands
+
+    PokerGame(GameConfig cfg) { this(cfg, new Random()); }
+    PokerGame(GameConfig cfg, Random rand) {
+        this.cfg = cfg;
+        this.rand = rand;
+        this.deck = new Deck(rand);
+        this.ai = cfg.aiUseMcts ? new MctsStrategy(cfg) : new ThresholdStrategy(cfg, rand);
+        this.human = new ConsoleStrategy(sc);
+        this.events = cfg.headless ? NullEvents.INSTANCE : new ConsoleEvents(System.out);
+    }
+
+    /* Keeps ranges for every seat from here on, narrowed with the frequencies in stats; stats
+       must be tracking this table too (its table() in events). */
+    void modelOpponents(PlayerStats stats) {
+        ranges = new OpponentModel(stats);
+        events = GameEvents.both(events, ranges);
+    }
+
+    void start() {
+        setupPlayers();
+        System.out.println("\nStarting Texas Hold'em. Type 'q' anytime to quit.\n");
+        boolean continueGame = true;
+        while (continueGame && activePlayersCount() > 1) {
+            playHand();
+            // remove busted players
+            players.removeIf(p->p.chips <= 0 && !p.isHuman); // auto remove busted AI
+            // if human busted, end
+            Player human = getHuman();
+            if (human == null || human.chips <= 0) {
+                System.out.println("\nYou're out of chips. Game over.");
+                break;
+            }
+            System.out.print("\nPlay another hand? (y/n): ");
+            String ans = sc.nextLine().trim().toLowerCase();
+            if (ans.equals("q") || ans.equals("n")) continueGame = false;
+            else {
+                // advance dealer
+                dealerIndex = (dealerIndex + 1) % players.size();
+            }
+        }
+        System.out.println("Thanks for playing!");
+    }
+
+    void setupPlayers() {
+        System.out.println("Welcome to Console Poker!");
+        System.out.print("Enter your name: ");
+        String name = sc.nextLine().trim();
+        if (name.isEmpty()) name = "You";
+        Player human = new Player(name, true, cfg.startingChips);
+        players.add(human);
+        for (int i=1; i<=cfg.numAIs; i++) {
+            players.add(new Player("AI_"+i, false, cfg.startingChips));
+        }
+        // cap players
+        if (players.size() > cfg.maxPlayers) players = players.subList(0, cfg.maxPlayers);
+        System.out.println("Players:");
+        for (Player p : players) System.out.println(" - " + p);
+    }
+
+    // Headless seating: the human's seat is played by an AI as well
+    void setupAIs() {
+        int seats = Math.min(cfg.numAIs + 1, cfg.maxPlayers);
+        for (int i=1; i<=seats; i++) players.add(new Player("AI_"+i, false, cfg.startingChips));
+    }
+
+    int activePlayersCount() {
+        int c=0;
+        for (Player p: players) if (p.chips > 0) c++;
+        return c;
+    }
+    Player getHuman() {
+        for (Player p: players) if (p.isHuman) return p;
+        return null;
+    }
+
+    void playHand() {
+        // reset
+        deck.reset();
+        board.clear();
+        pot = 0;
+        for (Player p : players) p.resetForRound();
+        // remove players with 0 chips from sitting out
+        players = players.stream().filter(p->p.chips > 0).collect(Collectors.toList());
+        if (players.size()<2) return; // not enough players to continue
+        for (int i=0;i<players.size();i++) players.get(i).seat = i;
+
+        // post blinds
+        int sbIndex = (dealerIndex + 1) % players.size();
+        int bbIndex = (dealerIndex + 2) % players.size();
+        Player sb = players.get(sbIndex);
+        Player bb = players.get(bbIndex);
+        int sbAmt = Math.min(cfg.smallBlind, sb.chips);
+        int bbAmt = Math.min(cfg.bigBlind, bb.chips);
+        // blinds stay in currentBet; runBettingRound moves them into the pot with the other bets
+        sb.chips -= sbAmt; sb.currentBet = sbAmt;
+        bb.chips -= bbAmt; bb.currentBet = bbAmt;
+        events.handStarted(this, players.get(dealerIndex), sb, sbAmt, bb, bbAmt);
+
+        // deal hole cards
+        for (int i=0;i<2;i++) {
+            for (Player p : players) {
+                p.hole.add(deck.deal());
+            }
+        }
+
+        for (Player p : players) events.holeCards(p);
+
+        // betting rounds: pre-flop, flop, turn, river
+        int toCall = bb.currentBet; // initial highest bet
+        // Pre-flop betting starting from player after big blind
+        runBettingRound((bbIndex+1)%players.size());
+
+        // the board is dealt out while two or more hands are live, even if they're all-in;
+        // betting only happens while at least two of them still have chips
+        if (moreThanOneContender()) {
+            // Flop
+            burn(); board.add(deck.deal()); board.add(deck.deal()); board.add(deck.deal());
+            events.boardDealt(1, CardSet.of(board));
+            resetCurrentBets();
+            if (moreThanOneActive()) runBettingRound((dealerIndex+1)%players.size());
+        }
+        if (moreThanOneContender()) {
+            // Turn
+            burn(); board.add(deck.deal());
+            events.boardDealt(2, CardSet.of(board));
+            resetCurrentBets();
+            if (moreThanOneActive()) runBettingRound((dealerIndex+1)%players.size());
+        }
+        if (moreThanOneContender()) {
+            // River
+            burn(); board.add(deck.deal());
+            events.boardDealt(3, CardSet.of(board));
+            resetCurrentBets();
+            if (moreThanOneActive()) runBettingRound((dealerIndex+1)%players.size());
+        }
+
+        // Showdown / award pots
+        pots.build(players);
+        if (pots.refund() > 0) {
+            Player back = players.get(pots.refundSeat());
+            back.chips += pots.refund();
+            events.uncalledReturned(back, pots.refund());
+        }
+        int n = players.size();
+        long live = 0;
+        for (Player p : players) if (!p.folded) live |= 1L << p.seat;
+        if (Long.bitCount(live) == 1) {
+            Player winner = players.get(Long.numberOfTrailingZeros(live));
+            winner.chips += pots.total();
+            events.potAwarded(winner, pots.total(), true);
+        } else {
+            // evaluate each live hand once on top of the board's rank state
+            if (score.length < n) { score = new long[n]; won = new int[n]; }
+            long boardBits = CardSet.of(board);
+            int boardState = LookupEvaluator.walk(0, boardBits);
+            for (Player p : players) {
+                won[p.seat] = 0;
+                if (p.folded) continue;
+                score[p.seat] = LookupEvaluator.score(boardState, boardBits, CardSet.of(p.hole));
+                events.showdown(p, boardBits, score[p.seat]);
+            }
+            pots.settle(score, live, n, dealerIndex, won);
+            for (Player p : players) {
+                if (won[p.seat] == 0) continue;
+                p.chips += won[p.seat];
+                events.potAwarded(p, won[p.seat], false);
+            }
+        }
+        events.handFinished(this);
+    }
+
+    boolean moreThanOneContender() {
+        int c = 0;
+        for (Player p : players) if (!p.folded) c++;
+        return c > 1;
+    }
+
+    boolean moreThanOneActive() {
+        return players.stream().filter(p->!p.folded && p.chips>0).count() > 1;
+    }
+
+    void runBettingRound(int startingIndex) {
+        BettingRound br = round;
+        br.start(players, startingIndex, cfg.bigBlind);
+        for (int s = br.toAct(); s >= 0; s = br.toAct()) {
+            Player p = players.get(s);
+            int before = p.currentBet;
+            Strategy st = p.strategy != null ? p.strategy : p.isHuman ? human : ai;
+            if (p.isHuman) events.yourTurn(p, pot, br.highBet() - p.currentBet);
+            int action = perform(p, st.decide(view(p, st.wantsState())), br.highBet());
+            decisions++;
+            br.apply(s, action, p.currentBet - before);
+        }
+        // collect bets to pot and reset currentBet
+        for (Player p : players) {
+            pot += p.currentBet;
+            p.committed += p.currentBet;
+            p.currentBet = 0;
+        }
+        events.potUpdated(pot);
+    }
+
+    // what the seat sees, for its strategy
+    DecisionView view(Player p) { return view(p, false); }
+    DecisionView view(Player p, boolean withState) {
+        int onTable = 0, opponents = 0, opponentStack = 0;
+        for (Player o : players) {
+            onTable += o.currentBet;
+            if (o != p && !o.folded) {
+                opponents++;
+                opponentStack = Math.max(opponentStack, o.chips + o.currentBet);
+            }
+        }
+        return new DecisionView(p.seat, players.size(), CardSet.of(p.hole), CardSet.of(board), pot + onTable,
+                round.highBet() - p.currentBet, p.currentBet, p.chips, round.highBet(), round.minRaiseTo(),
+                round.maxRaiseTo(p.seat), cfg.bigBlind, opponents, opponentStack, round.legalActions(p.seat),
+                withState ? GameState.of(this, p.seat, rand.nextLong()) : null, ranges, rand);
+    }
+
+    /* Moves the chips for a decision and reports it; returns the action code actually taken.
+       Illegal bets are made legal: a raise is clamped to the min raise and the stack (so a
+       short stack's raise is all-in), a raise that doesn't cover the call, that nobody could
+       answer or that a short all-in didn't reopen is a call, and a call the stack can't cover
+       is all-in. */
+    int perform(Player p, long decision, int currentMaxBet) {
+        int type = Action.type(decision);
+        if (type == Action.FOLD) {
+            p.folded = true;
+            return act(p, Action.FOLD, 0);
+        }
+        if (type == Action.ALL_IN && !round.mayRaise(p.seat)) type = Action.CALL; // a short stack's call is still all-in
+        if (type == Action.RAISE) {
+            int put = Action.amount(decision), toCall = currentMaxBet - p.currentBet;
+            if (!round.mayRaise(p.seat) || round.actorCount() < 2 || put <= toCall || p.chips <= toCall) type = Action.CALL;
+            else decision = Action.of(Action.RAISE, Math.max(round.minRaiseTo() - p.currentBet, put));
+        }
+        if (type == Action.RAISE || type == Action.ALL_IN) {
+            int put = type == Action.ALL_IN ? p.chips : Math.min(Action.amount(decision), p.chips);
+            p.currentBet += put;
+            p.chips -= put;
+            if (p.chips == 0) p.allIn = true;
+            return act(p, p.allIn ? Action.ALL_IN : Action.RAISE, put);
+        }
+        // check or call
+        int need = currentMaxBet - p.currentBet;
+        if (need <= 0) return act(p, Action.CHECK, 0);
+        int put = Math.min(need, p.chips);
+        p.currentBet += put;
+        p.chips -= put;
+        if (p.chips == 0) p.allIn = true;
+        return act(p, put < need ? Action.ALL_IN : Action.CALL, put);
+    }
+
+    // reports an action and hands its code back to the betting round
+    int act(Player p, int action, int amount) {
+        events.action(p, action, amount);
+        return action;
+    }
 
     void resetCurrentBets() {
         for (Player p : players) p.currentBet = 0;
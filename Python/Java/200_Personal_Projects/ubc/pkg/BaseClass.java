@@ -22,17 +22,29 @@ class Card {
     }
 }
 
-// Deck class
+// Deck class: a reusable int[52] of card indexes. Each deal does one Fisher-Yates swap,
+// so shuffle()/reset() between hands is O(1) and the 52 cards are only created once.
 class Deck {
-    List<Card> cards = new ArrayList<>();
+    Card[] all = new Card[52];
+    int[] order = new int[52];
+    int dealt = 0;
     Random rand = new Random();
     Deck() {
         for (Suit s : Suit.values())
-            for (int r = 2; r <= 14; r++)
-                cards.add(new Card(r, s));
+            for (int r = 2; r <= 14; r++) {
+                int i = s.ordinal() * 13 + r - 2;
+                all[i] = new Card(r, s);
+                order[i] = i;
+            }
+    }
+    void reset() { dealt = 0; }
+    void shuffle() { reset(); }
+    Card deal() {
+        if (dealt == 52) throw new IllegalStateException("Deck empty");
+        int j = dealt + rand.nextInt(52 - dealt);
+        int c = order[j]; order[j] = order[dealt]; order[dealt++] = c;
+        return all[c];
     }
-    void shuffle() { Collections.shuffle(cards, rand); }
-    Card deal() { return cards.remove(cards.size() - 1); }
 }
 
 // Player class